@@ -0,0 +1,96 @@
+
+package dais.bench;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+import dais.Maps;
+import dais.Interceptor;
+import dais.Terminator;
+import dais.ChainError;
+
+/**
+ * Chain fixtures shared by the benchmarks.
+ *
+ * Interceptors follow the shape of `Example.exampleLong` -- every Interceptor writes a key on enter,
+ * and every other Interceptor also writes a key on leave.
+ */
+public class BenchChains {
+
+    public static Interceptor[] interceptors(int length) {
+        Interceptor[] interceptors = new Interceptor[length];
+        for (int i = 0; i < length; i++) {
+            final String key = "k" + i;
+            final String leaveKey = "leave-k" + i;
+            final Integer value = i;
+            interceptors[i] = new Interceptor(ctx -> Maps.put(ctx, key, value),
+                                              (i % 2 == 0) ? ctx -> Maps.put(ctx, leaveKey, value) : null,
+                                              null);
+        }
+        return interceptors;
+    }
+
+    /**
+     * The first Interceptor handles (removes) the error,
+     * and the Interceptor in the middle of the chain produces it.
+     * When `thrown` is true, the error is a freshly constructed exception (as most code does today),
+     * otherwise the error is placed directly in the Context.
+     */
+    public static Interceptor[] erroringInterceptors(int length, boolean thrown) {
+        Interceptor[] interceptors = interceptors(length);
+        Interceptor first = interceptors[0];
+        interceptors[0] = new Interceptor(first.enterFn,
+                                          first.leaveFn,
+                                          ctx -> {
+                                              ctx.remove("error");
+                                              return Maps.put(ctx, "handled", true);
+                                          });
+        final RuntimeException signal = new IllegalStateException("bench signal");
+        interceptors[length / 2] = new Interceptor(thrown ?
+                                                   ctx -> { throw new IllegalStateException("bench error"); } :
+                                                   ctx -> Maps.put(ctx, "error", signal),
+                                                   null, null);
+        return interceptors;
+    }
+
+    public static final ChainError BENCH_ERROR = ChainError.define("bench", "bench error");
+
+    /**
+     * Like `erroringInterceptors`, but the error is a ChainError --
+     * either thrown (the defined instance), or raised into the Context with a payload.
+     */
+    public static Interceptor[] chainErrorInterceptors(int length, boolean thrown) {
+        Interceptor[] interceptors = erroringInterceptors(length, false);
+        interceptors[length / 2] = new Interceptor(thrown ?
+                                                   ctx -> { throw BENCH_ERROR; } :
+                                                   ctx -> ChainError.raise(ctx, BENCH_ERROR, "payload"),
+                                                   null, null);
+        return interceptors;
+    }
+
+    /**
+     * Terminators that never fire, so the full cost of testing them is paid after every Interceptor.
+     */
+    public static List<Predicate<Map<Object,Object>>> terminators(int count) {
+        List<Predicate<Map<Object,Object>>> terminators = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String key = "never-" + i;
+            terminators.add(ctx -> ctx.containsKey(key));
+        }
+        return terminators;
+    }
+
+    /**
+     * The same never-firing Terminators, declared with `Terminator.keyPresent`
+     * (evaluated on write by SlotContexts, and tested like any Predicate otherwise).
+     */
+    public static List<Predicate<Map<Object,Object>>> declarativeTerminators(int count) {
+        List<Predicate<Map<Object,Object>>> terminators = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            terminators.add(Terminator.keyPresent("never-" + i));
+        }
+        return terminators;
+    }
+}
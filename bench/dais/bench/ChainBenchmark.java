@@ -0,0 +1,143 @@
+
+package dais.bench;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dais.Interceptor;
+import dais.Context;
+import dais.Chain;
+import dais.ChainTemplate;
+import dais.SlotContext;
+import dais.ContextPool;
+
+/**
+ * Chain execution benchmarks
+ *
+ * Each benchmark builds a fresh Context per operation (like the Examples do),
+ * so the reported allocation includes the Context, the queue, and the stack.
+ *
+ * `length` mirrors the Example chains: 3 (`example1`), 14 (`exampleLong`), and a long 100-step chain.
+ * `terminators` is either "free" (no terminators at all), "heavy" (8 terminators that never fire,
+ * so every one of them is tested after every Interceptor), or "declarative" (the same 8, as `Terminator.keyPresent`,
+ * which SlotContexts evaluate on write).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmark {
+
+    static final int BATCH = 64;
+
+    @Param({"3", "14", "100"})
+    public int length;
+
+    @Param({"free", "heavy", "declarative"})
+    public String terminators;
+
+    Interceptor[] interceptors;
+    Interceptor[] throwingInterceptors;
+    Interceptor[] signallingInterceptors;
+    Interceptor[] chainErrorThrowingInterceptors;
+    Interceptor[] chainErrorRaisingInterceptors;
+    List<Predicate<Map<Object,Object>>> terminatorList;
+    ChainTemplate template;
+    ContextPool pool;
+
+    @Setup
+    public void setup() {
+        interceptors = BenchChains.interceptors(length);
+        throwingInterceptors = BenchChains.erroringInterceptors(length, true);
+        signallingInterceptors = BenchChains.erroringInterceptors(length, false);
+        chainErrorThrowingInterceptors = BenchChains.chainErrorInterceptors(length, true);
+        chainErrorRaisingInterceptors = BenchChains.chainErrorInterceptors(length, false);
+        terminatorList = "heavy".equals(terminators) ? BenchChains.terminators(8) :
+                         "declarative".equals(terminators) ? BenchChains.declarativeTerminators(8) : null;
+        template = ChainTemplate.of(terminatorList, interceptors);
+        pool = new ContextPool();
+    }
+
+    Context context() {
+        Context context = new Context();
+        return (terminatorList != null) ? context.withTerminators(terminatorList) : context;
+    }
+
+    @Benchmark
+    public Map<Object,Object> dequeQueue() {
+        return Chain.execute(context().withInterceptors(interceptors));
+    }
+
+    @Benchmark
+    public Map<Object,Object> staticQueue() {
+        return Chain.execute(context().withStaticInterceptors(interceptors));
+    }
+
+    @Benchmark
+    public Map<Object,Object> templateQueue() {
+        return template.execute(new Context());
+    }
+
+    @Benchmark
+    public Map<Object,Object> templateSlotContext() {
+        return template.execute(new SlotContext());
+    }
+
+    @Benchmark
+    public Object pooledTemplate() {
+        SlotContext context = pool.acquire();
+        try {
+            return pool.execute(context, template).get("k0");
+        } finally {
+            pool.release(context);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Map<Object,Object>> templateBatch() {
+        List<Map<Object,Object>> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(new SlotContext());
+        }
+        return Chain.executeBatch(batch, template);
+    }
+
+    @Benchmark
+    public Map<Object,Object> errorThrown() {
+        return Chain.execute(context().withStaticInterceptors(throwingInterceptors));
+    }
+
+    @Benchmark
+    public Map<Object,Object> errorSignalled() {
+        return Chain.execute(context().withStaticInterceptors(signallingInterceptors));
+    }
+
+    @Benchmark
+    public Map<Object,Object> errorChainErrorThrown() {
+        return Chain.execute(context().withStaticInterceptors(chainErrorThrowingInterceptors));
+    }
+
+    @Benchmark
+    public Map<Object,Object> errorChainErrorRaised() {
+        return Chain.execute(context().withStaticInterceptors(chainErrorRaisingInterceptors));
+    }
+}
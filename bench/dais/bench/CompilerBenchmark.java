@@ -0,0 +1,72 @@
+package dais.bench;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import java.lang.invoke.MethodHandle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dais.Chain;
+import dais.ChainCompiler;
+import dais.ChainTemplate;
+import dais.CompiledChain;
+import dais.Interceptor;
+
+/**
+ * Compiled chains vs the interpreted ChainTemplate, for the 14-step `exampleLong` shape.
+ *
+ * The compiled handle is held in a static final (as CompiledChain recommends), so the JIT can inline the whole chain;
+ * `compiledExecute` goes through `CompiledChain.execute`, where the handle isn't a constant.
+ *
+ * Before measuring, a few other chains are run through the shared (template) code,
+ * so its stage call sites are megamorphic -- as they are in a service running many chains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+
+    static final Interceptor[] INTERCEPTORS = BenchChains.interceptors(14);
+    static final ChainTemplate TEMPLATE = new ChainTemplate(INTERCEPTORS);
+    static final CompiledChain COMPILED = ChainCompiler.compile(TEMPLATE);
+    static final MethodHandle HANDLE = COMPILED.handle();
+
+    @Setup
+    public void pollute() {
+        for (int c = 0; c < 4; c++) {
+            ChainTemplate other = new ChainTemplate(BenchChains.interceptors(14));
+            for (int i = 0; i < 20000; i++) {
+                Chain.execute(new HashMap<>(), other);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<Object,Object> template() {
+        return Chain.execute(new HashMap<>(), TEMPLATE);
+    }
+
+    @Benchmark
+    public Map<Object,Object> compiledExecute() {
+        return COMPILED.execute(new HashMap<>());
+    }
+
+    @Benchmark
+    public Map<Object,Object> compiledHandle() throws Throwable {
+        return (Map<Object,Object>) HANDLE.invokeExact((Map) new HashMap<>());
+    }
+}
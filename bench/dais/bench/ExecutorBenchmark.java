@@ -0,0 +1,75 @@
+
+package dais.bench;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dais.ChainExecutor;
+import dais.ChainTemplate;
+import dais.SlotContext;
+
+/**
+ * ChainExecutor throughput
+ *
+ * Each operation is one Chain; an invocation submits a batch of Chains and waits for all of them,
+ * so the score is Chains per microsecond across all workers.
+ * The VIRTUAL_THREADS mode needs a JDK 21+ runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    static final int BATCH = 1024;
+
+    @Param({"WORK_STEALING", "VIRTUAL_THREADS"})
+    public ChainExecutor.Mode mode;
+
+    @Param({"14"})
+    public int length;
+
+    ChainExecutor executor;
+    ChainTemplate template;
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+
+    @Setup
+    public void setup() {
+        executor = new ChainExecutor(mode,
+                                     Runtime.getRuntime().availableProcessors(),
+                                     BATCH,
+                                     ChainExecutor.RejectionPolicy.BLOCK);
+        template = new ChainTemplate(BenchChains.interceptors(length));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object submitTemplate() {
+        for (int i = 0; i < BATCH; i++) {
+            futures[i] = executor.submit(new SlotContext(), template);
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,26 @@
+
+package dais.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.profile.GCProfiler;
+
+/**
+ * Entry point for `lein bench`
+ *
+ * Accepts the usual JMH command line (eg: `lein bench ChainBenchmark -p length=14`),
+ * but always attaches the GC profiler so every run reports allocation per op (`gc.alloc.rate.norm`).
+ */
+public class Main {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                                              .addProfiler(GCProfiler.class)
+                                              .build();
+        new Runner(options).run();
+    }
+}
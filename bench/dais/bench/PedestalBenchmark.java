@@ -0,0 +1,79 @@
+
+package dais.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+
+/**
+ * Pedestal baseline
+ *
+ * Runs `io.pedestal.interceptor.chain/execute` over the same chain shapes as `ChainBenchmark`
+ * (keyword keys instead of strings, and assoc instead of put), so the two can be compared directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PedestalBenchmark {
+
+    private static final String FIXTURES =
+        "(fn [length terminator-count]" +
+        "  {:interceptors (mapv (fn [i]" +
+        "                         (io.pedestal.interceptor/interceptor" +
+        "                           (cond-> {:name (keyword (str \"k\" i))" +
+        "                                    :enter (fn [ctx] (assoc ctx (keyword (str \"k\" i)) i))}" +
+        "                             (even? i) (assoc :leave (fn [ctx] (assoc ctx (keyword (str \"leave-k\" i)) i))))))" +
+        "                       (range length))" +
+        "   :context (if (pos? terminator-count)" +
+        "              {:io.pedestal.interceptor.chain/terminators" +
+        "               (mapv (fn [i] (fn [ctx] (contains? ctx (keyword (str \"never-\" i)))))" +
+        "                     (range terminator-count))}" +
+        "              {})})";
+
+    @Param({"3", "14", "100"})
+    public int length;
+
+    @Param({"free", "heavy"})
+    public String terminators;
+
+    IFn execute;
+    Object interceptors;
+    Object context;
+
+    @Setup
+    public void setup() {
+        IFn require = Clojure.var("clojure.core", "require");
+        require.invoke(Clojure.read("io.pedestal.interceptor"));
+        require.invoke(Clojure.read("io.pedestal.interceptor.chain"));
+
+        IFn eval = Clojure.var("clojure.core", "eval");
+        IFn fixtures = (IFn) eval.invoke(Clojure.read(FIXTURES));
+        Object built = fixtures.invoke(length, "heavy".equals(terminators) ? 8 : 0);
+
+        IFn get = Clojure.var("clojure.core", "get");
+        interceptors = get.invoke(built, Clojure.read(":interceptors"));
+        context = get.invoke(built, Clojure.read(":context"));
+        execute = Clojure.var("io.pedestal.interceptor.chain", "execute");
+    }
+
+    @Benchmark
+    public Object pedestalExecute() {
+        return execute.invoke(context, interceptors);
+    }
+}
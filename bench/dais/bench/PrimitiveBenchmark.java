@@ -0,0 +1,109 @@
+package dais.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dais.Chain;
+import dais.ChainTemplate;
+import dais.Interceptor;
+import dais.SlotContext;
+import dais.ContextPool;
+
+/**
+ * Primitive values on a SlotContext
+ *
+ * A chain of counters, where every Interceptor reads the previous value, and writes the next one
+ * (with values outside the Integer cache, so boxing always allocates).
+ * `boxed` goes through the Map view; `unboxed` uses the primitive accessors.
+ * Compare `gc.alloc.rate.norm`: a fresh SlotContext allocates its primitive array once, instead of a box per write;
+ * a pooled SlotContext keeps its arrays, so the unboxed chain shouldn't allocate any values at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveBenchmark {
+
+    static final int LENGTH = 8;
+    static final SlotContext.Key[] KEYS = new SlotContext.Key[LENGTH + 1];
+    static {
+        for (int i = 0; i <= LENGTH; i++) {
+            KEYS[i] = SlotContext.key("n" + i);
+        }
+    }
+
+    ChainTemplate boxed;
+    ChainTemplate unboxed;
+    ContextPool pool = new ContextPool();
+
+    @Setup
+    public void setup() {
+        Interceptor[] boxedChain = new Interceptor[LENGTH];
+        Interceptor[] unboxedChain = new Interceptor[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            final SlotContext.Key from = KEYS[i];
+            final SlotContext.Key to = KEYS[i + 1];
+            boxedChain[i] = new Interceptor(ctx -> {
+                                                SlotContext slots = (SlotContext) ctx;
+                                                slots.put(to, (long) slots.get(from) + 1000);
+                                                return ctx;
+                                            },
+                                            null, null);
+            unboxedChain[i] = new Interceptor(ctx -> ((SlotContext) ctx).putLong(to, ((SlotContext) ctx).getLong(from, 0) + 1000),
+                                              null, null);
+        }
+        boxed = new ChainTemplate(boxedChain);
+        unboxed = new ChainTemplate(unboxedChain);
+    }
+
+    @Benchmark
+    public Map<Object,Object> boxed() {
+        SlotContext context = new SlotContext();
+        context.put(KEYS[0], 1000L);
+        return Chain.execute(context, boxed);
+    }
+
+    @Benchmark
+    public Map<Object,Object> unboxed() {
+        SlotContext context = new SlotContext();
+        context.putLong(KEYS[0], 1000L);
+        return Chain.execute(context, unboxed);
+    }
+
+    @Benchmark
+    public long boxedPooled() {
+        SlotContext context = pool.acquire();
+        try {
+            context.put(KEYS[0], 1000L);
+            pool.execute(context, boxed);
+            return (long) context.get(KEYS[LENGTH]);
+        } finally {
+            pool.release(context);
+        }
+    }
+
+    @Benchmark
+    public long unboxedPooled() {
+        SlotContext context = pool.acquire();
+        try {
+            context.putLong(KEYS[0], 1000L);
+            pool.execute(context, unboxed);
+            return context.getLong(KEYS[LENGTH], 0);
+        } finally {
+            pool.release(context);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package dais.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dais.Chain;
+import dais.ChainTemplate;
+import dais.Interceptor;
+import dais.Router;
+import dais.SlotContext;
+
+/**
+ * Router dispatch
+ *
+ * `routes` static routes of the form "GET/api/r<i>/items/:id", plus a catch-all;
+ * every operation routes to a route near the end of the table, and runs the whole Chain.
+ * The score should stay flat as `routes` grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int routes;
+
+    Router router;
+    ChainTemplate template;
+    String path;
+
+    @Setup
+    public void setup() {
+        router = new Router("method", "path");
+        Interceptor[] chain = BenchChains.interceptors(3);
+        for (int i = 0; i < routes; i++) {
+            router.withRoute("GET/api/r" + i + "/items/:id", chain);
+        }
+        router.withRoute("GET/**", chain);
+        template = new ChainTemplate(router);
+        path = "/api/r" + (routes - 1) + "/items/42";
+    }
+
+    @Benchmark
+    public Map<Object,Object> route() {
+        SlotContext context = new SlotContext();
+        context.put("method", "GET");
+        context.put("path", path);
+        return Chain.execute(context, template);
+    }
+}
@@ -0,0 +1,344 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.Deque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import dais.IInterceptor;
+import dais.DeclaredInterceptor;
+import dais.Terminator;
+import dais.Chain;
+
+/**
+ * Dais AdaptiveChain
+ *
+ * A chain that profiles its Interceptors while it runs, and reorders the independent ones
+ * so the cheap Interceptors that often end the request run first.
+ *
+ * Only commutative DeclaredInterceptors are ever moved, and only within a run of adjacent ones
+ * (any other Interceptor is a fixed point; declarations are read when the chain is built).  Within a run, two Interceptors keep their declared relative order when:
+ *  - their declarations conflict (see DeclaredInterceptor), or
+ *  - both can end the request -- they write "dais.queue", or the key of one of the chain's Terminators.
+ *    If the chain has a Terminator that isn't declarative (an arbitrary Predicate), any Interceptor could trip it,
+ *    so every Interceptor is treated as one that can end the request.
+ * So whichever Interceptor ends a request is the same one that would have ended it in declared order,
+ * and every Interceptor that runs sees the same values.  The only difference is that commutative Interceptors
+ * declared before it may be skipped.  (If a skipped Interceptor would have failed, that error isn't raised.)
+ *
+ * Executions are profiled by sampling (one in `sampleRate`, 16 by default): the sampled execution runs through
+ * wrappers that time each enter, and check whether it ended the request (cleared the queue, or tripped a Terminator).
+ * Every `reorderInterval` samples (256 by default) the order is recomputed, ranking Interceptors by
+ * average cost / short-circuit rate -- the classic ordering for short-circuiting filters -- and older samples are decayed
+ * so the order keeps up with the traffic.  Interceptors that never end the request keep their declared order.
+ *
+ * The current order is published as an immutable array, so executions never block on a reorder,
+ * and an execution keeps the order it started with.  `currentOrder()` and `toString()` show the order (and profile) for debugging.
+ *
+ * Executions use the Chain (a "dais.queue" Deque in the current order), so the Chain's semantics apply unchanged.
+ * The chain's Terminators (if it has any) replace the Context's "dais.terminators".
+ */
+public final class AdaptiveChain {
+
+    private static final int DEFAULT_SAMPLE_RATE = 16;
+    private static final int DEFAULT_REORDER_INTERVAL = 256;
+    // Samples an Interceptor needs before its profile is trusted
+    private static final long MIN_SAMPLES = 16;
+
+    // The order, and matching profiling wrappers; published together
+    static final class Plan {
+        final int[] positions;
+        final IInterceptor[] order;
+        final IInterceptor[] profiled;
+
+        Plan(int[] positions, IInterceptor[] order, IInterceptor[] profiled) {
+            this.positions = positions;
+            this.order = order;
+            this.profiled = profiled;
+        }
+    }
+
+    static final class Profile {
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong costNanos = new AtomicLong();
+        final AtomicLong stops = new AtomicLong();
+
+        void record(long cost, boolean stopped) {
+            this.samples.incrementAndGet();
+            this.costNanos.addAndGet(cost);
+            if (stopped) {
+                this.stops.incrementAndGet();
+            }
+        }
+
+        // Halve the history (approximately, while samples are being recorded)
+        void decay() {
+            this.samples.addAndGet(-(this.samples.get() / 2));
+            this.costNanos.addAndGet(-(this.costNanos.get() / 2));
+            this.stops.addAndGet(-(this.stops.get() / 2));
+        }
+
+        // Expected cost per request ended; lower runs first
+        double rank() {
+            long samples = this.samples.get();
+            long stops = this.stops.get();
+            if (samples < MIN_SAMPLES || stops <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return ((double) this.costNanos.get() / samples) / ((double) stops / samples);
+        }
+
+        public String toString() {
+            long samples = Math.max(1, this.samples.get());
+            return String.format("cost=%dns stops=%.1f%%", this.costNanos.get() / samples, 100.0 * this.stops.get() / samples);
+        }
+    }
+
+    // Profiles an Interceptor's enter; everything else is delegated
+    final class Profiled implements IInterceptor {
+        final IInterceptor interceptor;
+        final Profile profile;
+        final Function<Map<Object,Object>,Map<Object,Object>> enterFn;
+
+        Profiled(IInterceptor interceptor, Profile profile) {
+            this.interceptor = interceptor;
+            this.profile = profile;
+            Function<Map<Object,Object>,Map<Object,Object>> enter = interceptor.getEnter();
+            this.enterFn = (enter == null) ? null : context -> {
+                Object queue = context.get("dais.queue");
+                int remaining = (queue instanceof Deque) ? ((Deque) queue).size() : 0;
+                long start = System.nanoTime();
+                context = enter.apply(context);
+                long cost = System.nanoTime() - start;
+                this.profile.record(cost, (remaining > 0 && ((Deque) queue).isEmpty()) ||
+                                          (terminators != null && Chain.terminates(context, terminators)));
+                return context;
+            };
+        }
+
+        public Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+            return this.enterFn;
+        }
+        public Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+            return this.interceptor.getLeave();
+        }
+        public Function<Map<Object,Object>,Map<Object,Object>> getError() {
+            return this.interceptor.getError();
+        }
+        public String getName() {
+            return this.interceptor.getName();
+        }
+    }
+
+    private final IInterceptor[] declared;
+    private final List<Predicate<Map<Object,Object>>> terminators;
+    private final Profile[] profiles;
+    // Precedence within runs of commutative Interceptors: mustPrecede[i][j] (i declared before j)
+    private final boolean[][] mustPrecede;
+    private final boolean[] movable;
+    private final boolean[] endsRequest;
+
+    private volatile Plan plan;
+    private int sampleRate = DEFAULT_SAMPLE_RATE;
+    private int reorderInterval = DEFAULT_REORDER_INTERVAL;
+    private final AtomicLong sampled = new AtomicLong();
+
+    public AdaptiveChain(List<Predicate<Map<Object,Object>>> terminators, IInterceptor... interceptors) {
+        for (IInterceptor interceptor : interceptors) {
+            if (interceptor == null) {
+                throw new IllegalArgumentException("An AdaptiveChain can't contain null Interceptors");
+            }
+        }
+        this.declared = interceptors.clone();
+        this.terminators = (terminators == null || terminators.isEmpty()) ? null : terminators;
+        int n = this.declared.length;
+        this.profiles = new Profile[n];
+        for (int i = 0; i < n; i++) {
+            this.profiles[i] = new Profile();
+        }
+
+        // Which keys end the request, when written
+        Set<Object> stopKeys = new HashSet<>();
+        stopKeys.add("dais.queue");
+        boolean anyStops = false;
+        if (this.terminators != null) {
+            for (Predicate<Map<Object,Object>> t : this.terminators) {
+                if (t instanceof Terminator) {
+                    stopKeys.add(((Terminator) t).key.name);
+                } else if (t != null) {
+                    anyStops = true;
+                }
+            }
+        }
+        this.movable = new boolean[n];
+        this.endsRequest = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (this.declared[i] instanceof DeclaredInterceptor) {
+                DeclaredInterceptor d = (DeclaredInterceptor) this.declared[i];
+                this.movable[i] = d.isCommutative();
+                this.endsRequest[i] = anyStops || DeclaredInterceptor.intersects(d.writes(), stopKeys);
+            }
+        }
+        this.mustPrecede = new boolean[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n && this.movable[i] && this.movable[j]; j++) {
+                this.mustPrecede[i][j] = (this.endsRequest[i] && this.endsRequest[j]) ||
+                                         ((DeclaredInterceptor) this.declared[i]).conflictsWith((DeclaredInterceptor) this.declared[j]);
+            }
+        }
+        this.plan = plan(identity(n));
+    }
+    public AdaptiveChain(IInterceptor... interceptors) {
+        this(null, interceptors);
+    }
+
+    private static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    private Plan plan(int[] positions) {
+        IInterceptor[] order = new IInterceptor[positions.length];
+        IInterceptor[] profiled = new IInterceptor[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            order[i] = this.declared[positions[i]];
+            profiled[i] = new Profiled(order[i], this.profiles[positions[i]]);
+        }
+        return new Plan(positions, order, profiled);
+    }
+
+    /* Configuration
+     * -----------------*/
+    /**
+     * Profile one in `sampleRate` executions
+     */
+    public AdaptiveChain withSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("The sample rate must be at least 1");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+    /**
+     * Reorder after every `reorderInterval` profiled executions
+     */
+    public AdaptiveChain withReorderInterval(int reorderInterval) {
+        if (reorderInterval < 1) {
+            throw new IllegalArgumentException("The reorder interval must be at least 1");
+        }
+        this.reorderInterval = reorderInterval;
+        return this;
+    }
+
+    /* Execution
+     * -----------------*/
+    public Map<Object,Object> execute(Map<Object,Object> context) {
+        Plan plan = this.plan;
+        boolean sample = this.sampleRate == 1 || ThreadLocalRandom.current().nextInt(this.sampleRate) == 0;
+        IInterceptor[] interceptors = sample ? plan.profiled : plan.order;
+
+        Deque<IInterceptor> queue = new ArrayDeque<IInterceptor>(interceptors.length);
+        for (IInterceptor interceptor : interceptors) {
+            queue.addLast(interceptor);
+        }
+        context.put("dais.queue", queue);
+        if (this.terminators != null) {
+            context.put("dais.terminators", this.terminators);
+        }
+        context = Chain.execute(context);
+
+        if (sample && this.sampled.incrementAndGet() % this.reorderInterval == 0) {
+            reorder();
+        }
+        return context;
+    }
+
+    /**
+     * Recompute the order from the current profile (this happens automatically as executions are sampled)
+     */
+    public synchronized void reorder() {
+        int n = this.declared.length;
+        double[] ranks = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Only Interceptors declared to end the request are moved forward
+            ranks[i] = this.endsRequest[i] ? this.profiles[i].rank() : Double.POSITIVE_INFINITY;
+        }
+        int[] positions = new int[n];
+        boolean[] placed = new boolean[n];
+        int out = 0;
+        for (int i = 0; i < n; i++) {
+            if (!this.movable[i]) {
+                positions[out++] = i;
+                placed[i] = true;
+                continue;
+            }
+            int end = i;
+            while (end + 1 < n && this.movable[end + 1]) {
+                end++;
+            }
+            // Greedily place the best-ranked Interceptor whose predecessors are placed (ties keep declared order)
+            for (int count = i; count <= end; count++) {
+                int best = -1;
+                for (int k = i; k <= end; k++) {
+                    if (placed[k] || !ready(k, i, placed)) {
+                        continue;
+                    }
+                    if (best < 0 || ranks[k] < ranks[best]) {
+                        best = k;
+                    }
+                }
+                positions[out++] = best;
+                placed[best] = true;
+            }
+            i = end;
+        }
+        for (Profile profile : this.profiles) {
+            profile.decay();
+        }
+        if (!Arrays.equals(positions, this.plan.positions)) {
+            this.plan = plan(positions);
+        }
+    }
+
+    private boolean ready(int k, int runStart, boolean[] placed) {
+        for (int j = runStart; j < k; j++) {
+            if (this.mustPrecede[j][k] && !placed[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Debugging
+     * -----------------*/
+    public List<IInterceptor> currentOrder() {
+        return Collections.unmodifiableList(Arrays.asList(this.plan.order));
+    }
+    public List<IInterceptor> declaredOrder() {
+        return Collections.unmodifiableList(Arrays.asList(this.declared));
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AdaptiveChain[");
+        for (IInterceptor interceptor : this.plan.profiled) {
+            Profiled p = (Profiled) interceptor;
+            if (sb.length() > "AdaptiveChain[".length()) {
+                sb.append(", ");
+            }
+            sb.append(p.getName()).append(" (").append(p.profile).append(')');
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,232 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Deque;
+import java.util.Collection;
+
+import java.util.ArrayDeque;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import dais.IInterceptor;
+import dais.IAsyncInterceptor;
+import dais.ChainTemplate;
+import dais.Deadline;
+
+/**
+ * Dais AsyncChain
+ *
+ * Executes a Context's "dais.queue" exactly like `Chain.execute` (same Enter, Terminator, Leave, and Error rules),
+ * but IAsyncInterceptor stages may return incomplete CompletionStages without blocking a thread.
+ *
+ * Plain IInterceptors run inline, and so do async stages that return an already-completed stage;
+ * neither allocates a future.  When a stage returns an incomplete stage, the execution is parked
+ * and continues on whichever thread completes that stage.
+ *
+ * The queue may be a Deque, a static IInterceptor[], or a ChainTemplate.
+ * As in ChainTemplate, an exception thrown from an `error` stage replaces the current "error"
+ * and unwinding continues with the next Interceptor on the stack.
+ *
+ * The returned CompletionStage completes with the final Context.
+ * It only completes exceptionally if the chain machinery itself fails (eg: a Terminator throws);
+ * Interceptor failures are placed in the Context as "error", like the synchronous Chain.
+ */
+public class AsyncChain {
+
+    @SuppressWarnings("unchecked")
+    public static final CompletionStage<Map<Object,Object>> execute(Map<Object,Object> context) {
+        Object queue = context.get("dais.queue");
+        Deque<IInterceptor> stack = (Deque<IInterceptor>) context.get("dais.stack");
+        List<Predicate<Map<Object,Object>>> terminators = (List<Predicate<Map<Object,Object>>>) context.get("dais.terminators");
+
+        Execution execution;
+        if (queue instanceof Deque) {
+            execution = new Execution(context, (Deque<IInterceptor>) queue, null, stack, terminators);
+        } else if (queue instanceof IInterceptor[]) {
+            execution = new Execution(context, null, (IInterceptor[]) queue, stack, terminators);
+        } else if (queue instanceof ChainTemplate) {
+            ChainTemplate template = (ChainTemplate) queue;
+            Deque<IInterceptor> cursor = template.cursor();
+            context.put("dais.queue", cursor);
+            execution = new Execution(context, cursor, null, stack,
+                                      (template.terminators.length != 0) ? template.terminatorList() : terminators);
+        } else {
+            return CompletableFuture.completedFuture(context);
+        }
+        execution.run();
+        return execution.result;
+    }
+    public static final CompletionStage<Map<Object,Object>> execute(Map<Object,Object> context, Collection<IInterceptor> queue) {
+        context.put("dais.queue", new ArrayDeque<IInterceptor>(queue));
+        return execute(context);
+    }
+
+    static final Throwable unwrap(Throwable t) {
+        return (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+    }
+
+    static final int ENTER = 0;
+    static final int LEAVE = 1;
+    static final int ERROR = 2;
+
+    /**
+     * The state of a single execution.
+     * It is also the callback registered on incomplete stages, so parking an execution doesn't allocate a lambda.
+     */
+    static final class Execution implements BiConsumer<Map<Object,Object>,Throwable> {
+        final CompletableFuture<Map<Object,Object>> result = new CompletableFuture<>();
+        final Deque<IInterceptor> queue;
+        final IInterceptor[] staticQueue;
+        final Deque<IInterceptor> stack;
+        final List<Predicate<Map<Object,Object>>> terminators;
+
+        Map<Object,Object> context;
+        int index;
+        int phase = ENTER;
+
+        Execution(Map<Object,Object> context,
+                  Deque<IInterceptor> queue,
+                  IInterceptor[] staticQueue,
+                  Deque<IInterceptor> stack,
+                  List<Predicate<Map<Object,Object>>> terminators) {
+            this.context = context;
+            this.queue = queue;
+            this.staticQueue = staticQueue;
+            this.stack = (stack != null) ? stack : new ArrayDeque<IInterceptor>();
+            this.terminators = terminators;
+        }
+
+        /**
+         * Run until the chain finishes, or until a stage returns an incomplete CompletionStage.
+         */
+        void run() {
+            try {
+                while (true) {
+                    if (this.phase == ENTER) {
+                        if (!enter()) {
+                            return;
+                        }
+                    } else {
+                        if (this.stack.isEmpty()) {
+                            this.result.complete(this.context);
+                            return;
+                        }
+                        if (this.phase == ERROR && Chain.errorOf(this.context) == null) {
+                            this.phase = LEAVE;
+                        }
+                        IInterceptor interceptor = this.stack.pollFirst();
+                        if (!call(interceptor, this.phase)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                this.result.completeExceptionally(t);
+            }
+        }
+
+        // One step of the Enter Phase; returns false if the execution is finished or parked
+        private boolean enter() {
+            IInterceptor interceptor;
+            if (this.queue != null) {
+                if (this.queue.isEmpty()) {
+                    this.result.complete(this.context);
+                    return false;
+                }
+                interceptor = this.queue.pollFirst();
+            } else {
+                if (this.index >= this.staticQueue.length) {
+                    this.result.complete(this.context);
+                    return false;
+                }
+                interceptor = this.staticQueue[this.index++];
+            }
+
+            if (Deadline.timedOut(this.context)) {
+                // The interceptor is skipped, like the rest of the queue
+                this.phase = ERROR;
+                return true;
+            }
+
+            if (interceptor == null) {
+                this.context.remove("dais.queue");
+                this.phase = LEAVE;
+                return true;
+            }
+            this.stack.offerFirst(interceptor);
+            return call(interceptor, ENTER);
+        }
+
+        // Call a single stage; returns false if the stage is incomplete (and the execution is parked)
+        private boolean call(IInterceptor interceptor, int stage) {
+            try {
+                if (interceptor instanceof IAsyncInterceptor) {
+                    IAsyncInterceptor async = (IAsyncInterceptor) interceptor;
+                    Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> fn =
+                        (stage == ENTER) ? async.getAsyncEnter() :
+                        (stage == LEAVE) ? async.getAsyncLeave() : async.getAsyncError();
+                    if (fn != null) {
+                        CompletableFuture<Map<Object,Object>> f = fn.apply(this.context).toCompletableFuture();
+                        if (!f.isDone()) {
+                            f.whenComplete(this);
+                            return false;
+                        }
+                        this.context = f.join();
+                    }
+                } else {
+                    Function<Map<Object,Object>,Map<Object,Object>> fn =
+                        (stage == ENTER) ? interceptor.getEnter() :
+                        (stage == LEAVE) ? interceptor.getLeave() : interceptor.getError();
+                    if (fn != null) {
+                        this.context = fn.apply(this.context);
+                    }
+                }
+            } catch (Throwable t) {
+                failed(unwrap(t));
+                return true;
+            }
+            completed();
+            return true;
+        }
+
+        // A parked stage completed
+        public void accept(Map<Object,Object> updated, Throwable t) {
+            if (t != null) {
+                failed(unwrap(t));
+            } else {
+                this.context = updated;
+                try {
+                    completed();
+                } catch (Throwable tt) {
+                    this.result.completeExceptionally(tt);
+                    return;
+                }
+            }
+            run();
+        }
+
+        private void failed(Throwable t) {
+            this.context.put("error", t);
+            this.phase = ERROR;
+        }
+
+        // Decide the next phase after a stage completed normally
+        private void completed() {
+            if (Chain.errorOf(this.context) != null) {
+                this.phase = ERROR;
+                return;
+            }
+            if (this.phase == ENTER && this.terminators != null && Chain.terminates(this.context, this.terminators)) {
+                this.context.remove("dais.queue");
+                this.phase = LEAVE;
+            }
+        }
+    }
+}
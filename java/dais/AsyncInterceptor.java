@@ -0,0 +1,63 @@
+
+package dais;
+
+import dais.ToInterceptor;
+import dais.IInterceptor;
+import dais.IAsyncInterceptor;
+
+import java.util.function.Function;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+public class AsyncInterceptor implements IAsyncInterceptor, ToInterceptor {
+
+    public final Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> enterFn;
+    public final Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> leaveFn;
+    public final Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> errorFn;
+
+    // Blocking versions, for the synchronous Chain -- built once, instead of on every `getEnter` call
+    private final Function<Map<Object,Object>,Map<Object,Object>> blockingEnterFn;
+    private final Function<Map<Object,Object>,Map<Object,Object>> blockingLeaveFn;
+    private final Function<Map<Object,Object>,Map<Object,Object>> blockingErrorFn;
+
+    public AsyncInterceptor(Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> enter,
+                            Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> leave,
+                            Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> error) {
+        this.enterFn = enter;
+        this.leaveFn = leave;
+        this.errorFn = error;
+        this.blockingEnterFn = IAsyncInterceptor.blocking(enter);
+        this.blockingLeaveFn = IAsyncInterceptor.blocking(leave);
+        this.blockingErrorFn = IAsyncInterceptor.blocking(error);
+    }
+
+    /* IAsyncInterceptor
+     * -----------------*/
+    public Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> getAsyncEnter() {
+        return this.enterFn;
+    }
+    public Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> getAsyncLeave() {
+        return this.leaveFn;
+    }
+    public Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> getAsyncError() {
+        return this.errorFn;
+    }
+
+    /* IInterceptor
+     * -----------------*/
+    public Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+        return this.blockingEnterFn;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+        return this.blockingLeaveFn;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getError() {
+        return this.blockingErrorFn;
+    }
+
+    /* ToInterceptor
+     * ------------------*/
+    public IInterceptor toInterceptor() {
+        return this;
+    }
+}
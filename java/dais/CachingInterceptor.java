@@ -0,0 +1,319 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Deque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import dais.IInterceptor;
+import dais.ToInterceptor;
+
+/**
+ * Dais CachingInterceptor
+ *
+ * An Interceptor that caches a chain's results, and short-circuits the chain on repeats.
+ *
+ * The cache is keyed by the values of the declared key entries of the Context (eg: "method" and "path"),
+ * and it stores the values of the declared output entries (eg: "response").
+ *  - On enter, the key is computed, and looked up.  On a hit, the cached outputs are merged into the Context,
+ *    and the rest of the queue is cleared (so the chain stops, see Chain).
+ *    The queue must be a Deque (including a ChainTemplate Cursor); static (array) queues can't be short-circuited.
+ *  - On leave (after a miss), the output entries are stored under the key computed on enter.
+ *    Outputs are only stored when the chain unwinds through this Interceptor -- eg: a Terminator on an output key,
+ *    which also makes hits unwind, since the merged outputs satisfy it.
+ *  - If an error unwinds through this Interceptor, or none of the outputs are in the Context
+ *    (eg: the chain ended on some other Terminator, or an error was handled deeper in the chain), nothing is stored.
+ *
+ * The cache is bounded by entry count (`withMaximumSize`, 10000 by default) or by weight (`withMaximumWeight`),
+ * and entries can expire (`withTtl`).  Eviction is LRU, within each of a fixed number of independently locked segments
+ * (so an entry may be evicted slightly before it's the globally least-recently-used).
+ * Hits, misses, evictions, and expirations are counted without contention (see the Statistics section).
+ *
+ * A CachingInterceptor can be shared by chains running concurrently.  Cached values are shared by every Context
+ * that hits them, so they should be immutable.  Configure the cache before it's used; configuring clears it.
+ *
+ * The per-execution state is kept in the Context under "dais.cache/" + name, so caches in the same chain need distinct names.
+ */
+public final class CachingInterceptor implements IInterceptor, ToInterceptor {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final long MIN_SEGMENT_CAPACITY = 64;
+    private static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final String name;
+    private final String stateKey;
+    private final Object[] keys;
+    private final Object[] outputs;
+
+    private ToLongFunction<Object[]> weigher;
+    private long ttlNanos = -1;
+    private Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private final Function<Map<Object,Object>,Map<Object,Object>> enterFn = this::enter;
+    private final Function<Map<Object,Object>,Map<Object,Object>> leaveFn = this::leave;
+    private final Function<Map<Object,Object>,Map<Object,Object>> errorFn = this::error;
+
+    public CachingInterceptor(String name, Object[] keys, Object[] outputs) {
+        if (keys.length == 0 || outputs.length == 0) {
+            throw new IllegalArgumentException("A CachingInterceptor needs at least one key and one output entry");
+        }
+        this.name = name;
+        this.stateKey = "dais.cache/" + name;
+        this.keys = keys.clone();
+        this.outputs = outputs.clone();
+        this.segments = segments(DEFAULT_MAXIMUM_SIZE);
+    }
+    public CachingInterceptor(Object[] keys, Object[] outputs) {
+        this("dais.CachingInterceptor", keys, outputs);
+    }
+
+    // The cache key: the values of the key entries
+    static final class Key {
+        final Object[] values;
+        final int hash;
+
+        Key(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        public int hashCode() {
+            return this.hash;
+        }
+        public boolean equals(Object o) {
+            return (o instanceof Key) && ((Key) o).hash == this.hash && Arrays.equals(((Key) o).values, this.values);
+        }
+    }
+
+    static final class CacheEntry {
+        final Object[] values;
+        final long weight;
+        final long expiresAt;
+
+        CacheEntry(Object[] values, long weight, long expiresAt) {
+            this.values = values;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // An access-ordered (LRU) map, guarded by its own monitor
+    final class Segment extends LinkedHashMap<Key,CacheEntry> {
+        private static final long serialVersionUID = 1L;
+
+        final long capacity;
+        long weight;
+
+        Segment(long capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized CacheEntry lookup(Key key, long now) {
+            CacheEntry e = get(key);
+            if (e != null && ttlNanos >= 0 && now - e.expiresAt >= 0) {
+                remove(key);
+                this.weight -= e.weight;
+                expirations.increment();
+                return null;
+            }
+            return e;
+        }
+
+        synchronized void store(Key key, CacheEntry e) {
+            CacheEntry old = put(key, e);
+            this.weight += e.weight - ((old != null) ? old.weight : 0);
+            Iterator<CacheEntry> lru = values().iterator();
+            while (this.weight > this.capacity && lru.hasNext()) {
+                CacheEntry evicted = lru.next();
+                lru.remove();
+                this.weight -= evicted.weight;
+                evictions.increment();
+            }
+        }
+
+        synchronized void invalidate() {
+            clear();
+            this.weight = 0;
+        }
+    }
+
+    // Small caches aren't split up, so eviction stays close to a true LRU
+    private Segment[] segments(long limit) {
+        int count = (int) Math.min(MAX_SEGMENTS, Long.highestOneBit(Math.max(1, limit / MIN_SEGMENT_CAPACITY)));
+        Segment[] segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(Math.max(1, limit / count));
+        }
+        return segments;
+    }
+
+    // The same bounds, emptied (eg: entries stored before a TTL was set have no expiry)
+    private Segment[] segments(Segment[] current) {
+        Segment[] segments = new Segment[current.length];
+        for (int i = 0; i < current.length; i++) {
+            segments[i] = new Segment(current[i].capacity);
+        }
+        return segments;
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hash ^ (key.hash >>> 16);
+        return this.segments[h & (this.segments.length - 1)];
+    }
+
+    /* Configuration
+     * -----------------*/
+    public CachingInterceptor withMaximumSize(long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The maximum size must be positive");
+        }
+        this.weigher = null;
+        this.segments = segments(maximumSize);
+        return this;
+    }
+    /**
+     * Bound the cache by total weight, where each entry's weight is computed from its output values
+     * (in the order the outputs were declared)
+     */
+    public CachingInterceptor withMaximumWeight(long maximumWeight, ToLongFunction<Object[]> weigher) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("The maximum weight must be positive");
+        }
+        this.weigher = weigher;
+        this.segments = segments(maximumWeight);
+        return this;
+    }
+    public CachingInterceptor withTtl(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.segments = segments(this.segments);
+        return this;
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : this.segments) {
+            segment.invalidate();
+        }
+    }
+
+    /* Statistics
+     * -----------------*/
+    public long hitCount() {
+        return this.hits.sum();
+    }
+    public long missCount() {
+        return this.misses.sum();
+    }
+    public long evictionCount() {
+        return this.evictions.sum();
+    }
+    public long expirationCount() {
+        return this.expirations.sum();
+    }
+    public long size() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public String toString() {
+        return "CachingInterceptor[" + this.name + " hits=" + hitCount() + " misses=" + missCount() +
+               " evictions=" + evictionCount() + " expirations=" + expirationCount() + " size=" + size() + "]";
+    }
+
+    /* Stages
+     * -----------------*/
+    private Map<Object,Object> enter(Map<Object,Object> context) {
+        Object[] values = new Object[this.keys.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = context.get(this.keys[i]);
+        }
+        Key key = new Key(values);
+        CacheEntry e = segmentFor(key).lookup(key, (this.ttlNanos >= 0) ? System.nanoTime() : 0);
+        if (e == null) {
+            this.misses.increment();
+            context.put(this.stateKey, key);
+            return context;
+        }
+
+        this.hits.increment();
+        Object queue = context.get("dais.queue");
+        if (!(queue instanceof Deque)) {
+            throw new IllegalStateException("The CachingInterceptor can only short-circuit a Deque \"dais.queue\"");
+        }
+        for (int i = 0; i < this.outputs.length; i++) {
+            if (e.values[i] != null) {
+                context.put(this.outputs[i], e.values[i]);
+            }
+        }
+        ((Deque) queue).clear();
+        return context;
+    }
+
+    private Map<Object,Object> leave(Map<Object,Object> context) {
+        Object key = context.remove(this.stateKey);
+        if (key instanceof Key) {
+            Object[] values = new Object[this.outputs.length];
+            boolean produced = false;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = context.get(this.outputs[i]);
+                produced |= (values[i] != null);
+            }
+            if (!produced) {
+                return context;
+            }
+            long weight = (this.weigher != null) ? this.weigher.applyAsLong(values) : 1;
+            long expiresAt = (this.ttlNanos >= 0) ? System.nanoTime() + this.ttlNanos : 0;
+            segmentFor((Key) key).store((Key) key, new CacheEntry(values, weight, expiresAt));
+        }
+        return context;
+    }
+
+    private Map<Object,Object> error(Map<Object,Object> context) {
+        context.remove(this.stateKey);
+        return context;
+    }
+
+    /* IInterceptor
+     * -----------------*/
+    public Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+        return this.enterFn;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+        return this.leaveFn;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getError() {
+        return this.errorFn;
+    }
+    public String getName() {
+        return this.name;
+    }
+
+    public IInterceptor toInterceptor() {
+        return this;
+    }
+}
@@ -5,12 +5,25 @@ import java.util.Map;
 import java.util.List;
 import java.util.Deque;
 import java.util.Collection;
+import java.util.Iterator;
 
 import java.util.ArrayDeque;
 
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import dais.IInterceptor;
+import dais.ChainTemplate;
+import dais.SlotContext;
+import dais.ChainMetrics;
+import dais.ChainEvents;
+import dais.TerminatorSet;
+import dais.Stages;
+import dais.Deadline;
+import dais.ChainStream;
+import dais.ChainExecutor;
+import dais.ChainCursor;
 
 // NOTE: This is programmed against the common denominator -- a Map and null checks (no Optionals)
 //       Use the dais.Maps utility class for Optional-oriented interactions with the Context map
@@ -32,10 +45,14 @@ import dais.IInterceptor;
  * If there is an "error" in the Context, handle the Error Phase.
  * Errors are handled by calling the `error` method of the IInterceptors in the Context's stack.
  * If the error is handled, the rest of the stack is process as a Leave Phase, calling the `leave` method of the remaining IInterceptors.
+ * If an error function throws, the exception replaces the "error", and the Error Phase continues.
  *
  * If there are no errors, the Terminator Predicates are checked.
  * If any terminator returns true, the "dais.queue" is removed from the Context and the Leave Phase is executed.
  *
+ * Before every Interceptor is entered, the Context's Deadline (if it has one) is checked.
+ * If it has passed, the remaining Interceptors are skipped, and the Error Phase handles a `Deadline.TIMEOUT` error.
+ *
  * Otherwise, keep looping through the queue (see the top of this doc block), until it is emtpy.
  *
  * Note: All modifications to the queue and stack execution should be made directly against the references to those objects.
@@ -43,11 +60,22 @@ import dais.IInterceptor;
  *       There are no checks in place to see if a program is using undefined behavior -- it is undefined.
  *
  *       To short-circuit chain execution, an Interceptor can call `clear` on the queue.
+ *
+ *       The "dais.queue" may also be a ChainTemplate, which is executed without copying the queue (see ChainTemplate).
+ *
+ *       Execution is an explicit state machine (see ChainCursor), so its native stack depth doesn't grow with the chain,
+ *       and a chain run on a ChainCursor can be paused and resumed.
  */
 public class Chain {
 
+    // Metrics and Flight Recorder events are both off by default; when both are off, the instrumentation is folded away
+    static final boolean INSTRUMENTED = ChainMetrics.ENABLED || ChainEvents.ENABLED;
+
     //TODO: For now, let's just execute only forward
     public static final Map<Object,Object> execute(Map<Object,Object> context) {
+        if (context instanceof SlotContext) {
+            return execute((SlotContext) context);
+        }
         List<Predicate<Map<Object,Object>>> terminators = (List<Predicate<Map<Object,Object>>>) context.get("dais.terminators");
 
         Object queue = context.get("dais.queue");
@@ -55,12 +83,76 @@ public class Chain {
             return context;
         }
         Deque<IInterceptor> stack = (Deque<IInterceptor>) context.get("dais.stack");
+        return execute(context, queue, stack, terminators);
+    }
+    // SlotContexts hold the control entries in fields, so there's no need to look them up by key
+    @SuppressWarnings("unchecked")
+    static final Map<Object,Object> execute(SlotContext context) {
+        if (context.queue == null) {
+            return context;
+        }
+        Deque<IInterceptor> stack = (Deque<IInterceptor>) context.stack;
+        return execute(context,
+                       context.queue,
+                       (stack != null) ? stack : context.executionStack(),
+                       (List<Predicate<Map<Object,Object>>>) context.terminators,
+                       context.executionCursor());
+    }
+    // Execute with a caller-owned scratch stack, used when the Context doesn't supply its own "dais.stack"
+    @SuppressWarnings("unchecked")
+    static final Map<Object,Object> executeWithStack(Map<Object,Object> context, Deque<IInterceptor> scratchStack) {
+        Object queue = context.get("dais.queue");
+        if (queue == null) {
+            return context;
+        }
+        Deque<IInterceptor> stack = (Deque<IInterceptor>) context.get("dais.stack");
+        return execute(context,
+                       queue,
+                       (stack != null) ? stack : scratchStack,
+                       (List<Predicate<Map<Object,Object>>>) context.get("dais.terminators"));
+    }
+    static final Map<Object,Object> execute(Map<Object,Object> context,
+                                            Object queue,
+                                            Deque<IInterceptor> stack,
+                                            List<Predicate<Map<Object,Object>>> terminators) {
+        return execute(context, queue, stack, terminators, null);
+    }
+    // Execute on a reusable ChainCursor, if there is one (a pooled SlotContext's)
+    static final Map<Object,Object> execute(Map<Object,Object> context,
+                                            Object queue,
+                                            Deque<IInterceptor> stack,
+                                            List<Predicate<Map<Object,Object>>> terminators,
+                                            ChainCursor cursor) {
         stack = (stack != null) ? stack : new ArrayDeque<IInterceptor>();
 
-        if (queue instanceof Deque) {
+        if (ChainEvents.ENABLED && !(queue instanceof ChainTemplate)) {
+            Object event = ChainEvents.beginExecution((queue instanceof Deque) ? ((Deque) queue).size() :
+                                                      (queue instanceof IInterceptor[]) ? ((IInterceptor[]) queue).length : 0,
+                                                      false);
+            Map<Object,Object> result;
+            try {
+                result = executeQueue(context, queue, stack, terminators, cursor);
+            } catch (Throwable t) {
+                ChainEvents.failExecution(event, context, t);
+                throw t;
+            }
+            return ChainEvents.endExecution(event, result);
+        }
+        return executeQueue(context, queue, stack, terminators, cursor);
+    }
+    private static final Map<Object,Object> executeQueue(Map<Object,Object> context,
+                                                         Object queue,
+                                                         Deque<IInterceptor> stack,
+                                                         List<Predicate<Map<Object,Object>>> terminators,
+                                                         ChainCursor cursor) {
+        if (cursor != null && (queue instanceof Deque || queue instanceof IInterceptor[])) {
+            return cursor.reset(context, queue, stack, terminators, ChainCursor.ENTER).run();
+        } else if (queue instanceof Deque) {
             return handleEnter(context, (Deque<IInterceptor>) queue, stack, terminators);
         } else if (queue instanceof IInterceptor[]) {
             return handleArrayEnter(context, (IInterceptor[]) queue, stack, terminators);
+        } else if (queue instanceof ChainTemplate) {
+            return ((ChainTemplate) queue).execute(context);
         } else {
             return context;
         }
@@ -69,150 +161,226 @@ public class Chain {
         context.put("dais.queue", new ArrayDeque<IInterceptor>(queue));
         return execute(context);
     }
+    public static final Map<Object,Object> execute(Map<Object,Object> context, ChainTemplate template) {
+        return template.execute(context);
+    }
+    /**
+     * Execute the template against every Context in the batch, one Interceptor at a time (see ChainTemplate.executeBatch).
+     */
+    public static final List<Map<Object,Object>> executeBatch(List<Map<Object,Object>> contexts, ChainTemplate template) {
+        return template.executeBatch(contexts);
+    }
 
+    /**
+     * Execute the template over every Context of the input, lazily, returning the results in order (see ChainStream).
+     */
+    public static final Stream<Map<Object,Object>> stream(Iterator<? extends Map<Object,Object>> input, ChainTemplate template) {
+        return new ChainStream(input, template).stream();
+    }
+    public static final Stream<Map<Object,Object>> stream(Stream<? extends Map<Object,Object>> input, ChainTemplate template) {
+        return stream(input.iterator(), template).onClose(input::close);
+    }
+    /**
+     * Execute the template over every Context of the input on the executor, with at most `readAhead` records in flight,
+     * returning the results in input order (see ChainStream).
+     */
+    public static final Stream<Map<Object,Object>> stream(Iterator<? extends Map<Object,Object>> input,
+                                                          ChainTemplate template,
+                                                          ChainExecutor executor,
+                                                          int readAhead) {
+        return new ChainStream(input, template, executor, readAhead).stream();
+    }
+    public static final Stream<Map<Object,Object>> stream(Stream<? extends Map<Object,Object>> input,
+                                                          ChainTemplate template,
+                                                          ChainExecutor executor,
+                                                          int readAhead) {
+        return stream(input.iterator(), template, executor, readAhead).onClose(input::close);
+    }
+
+    /* Phases
+     * -----------------*/
+    // Each phase runs on a ChainCursor, which moves between the phases iteratively (instead of the phases calling each other)
     public static final Map<Object,Object> handleEnter(Map<Object,Object> context,
                                                        Deque<IInterceptor> queue,
                                                        Deque<IInterceptor> stack,
                                                        final List<Predicate<Map<Object,Object>>> terminators) {
-
         //NOTE: It's assumed the queue has been null-checked by this point
-        while (!queue.isEmpty()) {
-
-            IInterceptor interceptor = queue.pollFirst();
-            if (interceptor == null) {
-                context.remove("dais.queue");
-                return handleLeave(context, stack);
-            }
-            stack.offerFirst(interceptor); // Pushing to the front allows iteration without reversing
-
-            try {
-                context = IInterceptor.enter(interceptor, context);
-
-                if (context.get("error") != null) {
-                    return handleError(context, interceptor, stack);
-                }
-            } catch (Throwable t) {
-                context.put("error", t);
-                return handleError(context, interceptor, stack);
-            }
-
-            if (terminators != null) {
-                for (Predicate p : terminators) {
-                    if (p != null && p.test(context)) {
-                        context.remove("dais.queue");
-                        return handleLeave(context, stack);
-                    }
-                }
-            }
-        }
-        return context;
-
+        return new ChainCursor(context, queue, stack, terminators, ChainCursor.ENTER).run();
     }
     public static final Map<Object,Object> handleLeave(Map<Object,Object> context,
                                                        Deque<IInterceptor> stack) {
         //NOTE: It's assumed the stack has been null-checked by this point
-
-        /**
-         * This for-each loop looks nice, but restarts the stack processing
-         * when it switches back to "handleLeave".
-        for (IInterceptor interceptor : stack) {
-            try {
-                context = IInterceptor.leave(interceptor, context);
-                if (context.get("error") != null) {
-                    return handleError(context, interceptor, stack);
-                }
-            } catch (Throwable t) {
-                context.put("error", t);
-                return handleError(context, interceptor, stack);
-            }
-        }*/
-        while (!stack.isEmpty()) {
-            IInterceptor interceptor = stack.pollFirst(); // Our 'stack' is already "reversed" so grab the head
-            // Interceptors are null-checked when added to the stack
-            // so we shouldn't have to do that here.
-            // If an NPE happens, the user manipulated the stack directly,
-            // and that's their fault
-            try {
-                context = IInterceptor.leave(interceptor, context);
-                if (context.get("error") != null) {
-                    return handleError(context, interceptor, stack);
-                }
-            } catch (Throwable t) {
-                context.put("error", t);
-                return handleError(context, interceptor, stack);
-            }
-        }
-        return context;
+        return new ChainCursor(context, null, stack, null, ChainCursor.LEAVE).run();
     }
     public static final Map<Object,Object> handleError(Map<Object,Object> context,
                                                        IInterceptor erroredInterceptor,
                                                        Deque<IInterceptor> stack) {
         //NOTE: It's assumed the stack has been null-checked by this point
+        //      The errored Interceptor is expected to be at the head of the stack
+        return new ChainCursor(context, null, stack, null, ChainCursor.ERROR).run();
+    }
 
-        /**
-         * This for-each loop looks nice, but restarts the stack processing
-         * when it switches back to "handleLeave".
-        for (IInterceptor interceptor : stack) {
-            Object err = context.get("error");
-            if (err != null) {
-                context = IInterceptor.error(interceptor, context);
-            } else {
-                return handleLeave(context, stack);
+    static final Object errorOf(Map<Object,Object> context) {
+        return (context instanceof SlotContext) ? ((SlotContext) context).error : context.get("error");
+    }
+
+    /**
+     * Check the Terminators against the Context.
+     * If the Context is a SlotContext that compiled these Terminators, its declarative Terminators (see Terminator)
+     * were already evaluated as it was written, and are answered with a single flag check.
+     */
+    static final boolean terminates(Map<Object,Object> context, List<Predicate<Map<Object,Object>>> terminators) {
+        if (context instanceof SlotContext) {
+            TerminatorSet watching = ((SlotContext) context).watching;
+            if (watching != null && watching.source == terminators) {
+                return watching.test(context);
             }
         }
-        */
-        while (!stack.isEmpty()) {
-            Object err = context.get("error");
-            // Interceptors are null-checked when added to the stack
-            // so we shouldn't have to do that here.
-            // If an NPE happens, the user manipulated the stack directly,
-            // and that's their fault
-            if (err != null) {
-                IInterceptor interceptor = stack.pollFirst(); // Our 'stack' is already "reversed" so grab the head
-                // No need for a 'try/catch' here, because it's captured in 'handleLeave'
-                context = IInterceptor.error(interceptor, context);
-            } else {
-                return handleLeave(context, stack);
+        for (Predicate<Map<Object,Object>> p : terminators) {
+            if (p != null && p.test(context)) {
+                return true;
             }
         }
-        return context;
+        return false;
+    }
+
+    // Only called when INSTRUMENTED
+    static final Map<Object,Object> instrumented(int stage,
+                                                 IInterceptor interceptor,
+                                                 Map<Object,Object> context,
+                                                 int queueDepth,
+                                                 int stackDepth) {
+        Function<Map<Object,Object>,Map<Object,Object>> fn = (interceptor == null) ? null :
+                                                             (stage == ChainMetrics.ENTER) ? interceptor.getEnter() :
+                                                             (stage == ChainMetrics.LEAVE) ? interceptor.getLeave() :
+                                                             interceptor.getError();
+        ChainMetrics.InterceptorMetrics metrics = (ChainMetrics.ENABLED && fn != null) ? ChainMetrics.of(interceptor) : null;
+        if (ChainEvents.ENABLED) {
+            return ChainEvents.apply(interceptor, stage, fn, metrics, context, queueDepth, stackDepth);
+        }
+        return ChainMetrics.apply(metrics, stage, fn, context);
+    }
+    static final void terminated(IInterceptor interceptor, int queueDepth, int stackDepth) {
+        if (ChainMetrics.ENABLED) {
+            ChainMetrics.terminated(interceptor);
+        }
+        if (ChainEvents.ENABLED) {
+            ChainEvents.terminated(interceptor, queueDepth, stackDepth);
+        }
     }
 
     public static final Map<Object,Object> handleArrayEnter(Map<Object,Object> context,
                                                             IInterceptor[] queue,
                                                             Deque<IInterceptor> stack,
                                                             List<Predicate<Map<Object,Object>>> terminators) {
-
         //NOTE: It's assumed the queue has been null-checked by this point
-        for(IInterceptor interceptor : queue) {
-            if (interceptor == null) {
-                context.remove("dais.queue");
-                return handleLeave(context, stack);
-            }
-            stack.offerFirst(interceptor);
-
-            try {
-                context = IInterceptor.enter(interceptor, context);
+        return new ChainCursor(context, queue, stack, terminators, ChainCursor.ENTER).run();
+    }
 
-                if (context.get("error") != null) {
-                    return handleError(context, interceptor, stack);
-                }
-            } catch (Throwable t) {
-                context.put("error", t);
-                return handleError(context, interceptor, stack);
+    /* Named stages
+     * -----------------*/
+    /**
+     * Run a plan of stages (stage ids, see Stages) over the Interceptors, and return the final Context.
+     *
+     * Each stage runs across all of the Interceptors before the next stage starts --
+     * forward stages from the first Interceptor to the last, reverse stages from the last to the first.
+     * Interceptors without a function for a stage are skipped.  Stages are dispatched by id (an array index),
+     * so there are no name lookups while executing.
+     *
+     * The error and termination semantics are the same as the enter/leave phases of a Chain:
+     *  - When there's an "error" in the Context (or a stage function throws), the Error Phase starts:
+     *    `error` functions are called in reverse, from the Interceptor that failed
+     *    (or, in a reverse stage, the one before it) back to the first.  Once the error is handled,
+     *    the rest of those Interceptors are unwound with `leave`, and the remaining stages are skipped.
+     *  - The Context's Deadline is checked before every Interceptor in a forward stage (see Deadline).
+     *  - The "dais.terminators" are checked after every Interceptor in a forward stage.  When one fires,
+     *    the remaining forward stages are skipped, and the plan's remaining reverse stages only run
+     *    over the Interceptors the terminating stage reached.
+     *
+     * For example, `Stages.plan("validate", "enter", "leave")` validates everything before entering anything.
+     * The "error" stage can't be part of a plan.
+     */
+    public static final Map<Object,Object> executeStages(Map<Object,Object> context, IInterceptor[] interceptors, int... stages) {
+        for (int stage : stages) {
+            if (stage == Stages.ERROR) {
+                throw new IllegalArgumentException("The error stage can't be part of a stage plan");
             }
+        }
+        @SuppressWarnings("unchecked")
+        List<Predicate<Map<Object,Object>>> terminators = (context instanceof SlotContext) ?
+                                                          (List<Predicate<Map<Object,Object>>>) ((SlotContext) context).terminators :
+                                                          (List<Predicate<Map<Object,Object>>>) context.get("dais.terminators");
+        // Reverse stages run over interceptors[0..reached)
+        int reached = interceptors.length;
+        boolean terminated = false;
 
-            if (terminators != null) {
-                for (Predicate p : terminators) {
-                    if (p != null && p.test(context)) {
-                        context.remove("dais.queue");
-                        return handleLeave(context, stack);
+        for (int stage : stages) {
+            if (Stages.isReverse(stage)) {
+                for (int i = reached - 1; i >= 0; i--) {
+                    Function<Map<Object,Object>,Map<Object,Object>> fn = interceptors[i].getStage(stage);
+                    if (fn == null) {
+                        continue;
+                    }
+                    try {
+                        context = fn.apply(context);
+                    } catch (Throwable t) {
+                        context.put("error", t);
+                    }
+                    if (errorOf(context) != null) {
+                        return unwindStages(context, interceptors, i - 1);
+                    }
+                }
+            } else if (!terminated) {
+                for (int i = 0; i < interceptors.length; i++) {
+                    Function<Map<Object,Object>,Map<Object,Object>> fn = interceptors[i].getStage(stage);
+                    if (fn != null) {
+                        if (Deadline.timedOut(context)) {
+                            return unwindStages(context, interceptors, i - 1);
+                        }
+                        try {
+                            context = fn.apply(context);
+                        } catch (Throwable t) {
+                            context.put("error", t);
+                        }
+                        if (errorOf(context) != null) {
+                            return unwindStages(context, interceptors, i);
+                        }
+                    }
+                    if (terminators != null && terminates(context, terminators)) {
+                        reached = i + 1;
+                        terminated = true;
+                        break;
                     }
                 }
             }
         }
         return context;
     }
+    public static final Map<Object,Object> executeStages(Map<Object,Object> context, List<? extends IInterceptor> interceptors, int... stages) {
+        return executeStages(context, interceptors.toArray(new IInterceptor[0]), stages);
+    }
 
-}
+    // The Error Phase of a stage plan, unwinding interceptors[from..0]
+    private static final Map<Object,Object> unwindStages(Map<Object,Object> context, IInterceptor[] interceptors, int from) {
+        boolean erroring = true;
+        for (int i = from; i >= 0; i--) {
+            if (erroring && errorOf(context) == null) {
+                erroring = false;
+            }
+            Function<Map<Object,Object>,Map<Object,Object>> fn = interceptors[i].getStage(erroring ? Stages.ERROR : Stages.LEAVE);
+            if (fn == null) {
+                continue;
+            }
+            try {
+                context = fn.apply(context);
+                erroring = erroring || errorOf(context) != null;
+            } catch (Throwable t) {
+                // A throwing error function replaces the error, and unwinding continues
+                context.put("error", t);
+                erroring = true;
+            }
+        }
+        return context;
+    }
 
+}
@@ -0,0 +1,257 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import dais.IInterceptor;
+import dais.ChainTemplate;
+import dais.CompiledChain;
+import dais.TerminatorSet;
+import dais.Deadline;
+
+/**
+ * Dais ChainCompiler
+ *
+ * Compiles a fixed chain (a ChainTemplate) into a tree of MethodHandles -- straight-line code for that chain alone.
+ *
+ * Every stage function is bound into the tree as a constant, so every stage gets its own (monomorphic) call site,
+ * instead of every chain sharing the megamorphic `Function.apply` site in the Chain loop.
+ * Null stages are dropped entirely, and the enter/terminate/leave/error control flow is unrolled:
+ * each enter step decides (with a `guardWithTest`) whether to continue, terminate, or unwind,
+ * and every possible unwind is a precompiled sequence of leave/error calls.
+ * When the compiled handle is a constant (see CompiledChain.handle), the JIT can inline the whole pipeline.
+ *
+ * Results are identical to executing the template (see ChainTemplate):
+ *  - the template's Cursor is still placed in the Context as the "dais.queue", and kept up to date,
+ *  - if an Interceptor changes the queue (pushes, clears, etc), the compiled code hands the rest of the
+ *    execution over to the template, which picks up exactly where the compiled code left off,
+ *  - an exception thrown from an `error` function replaces the current "error", and unwinding continues,
+ *  - the Context's Deadline is checked before every enter (see Deadline).
+ *
+ * When ChainMetrics or ChainEvents are enabled, compiled chains simply execute their template (which is instrumented).
+ *
+ * Note: This uses MethodHandle combinators (rather than hidden classes) to stay compatible with Java 8.
+ */
+public final class ChainCompiler {
+
+    private ChainCompiler() {}
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType STAGE = MethodType.methodType(Map.class, Map.class);
+    // An enter step: (context, cursor, terminators) -> context
+    private static final MethodType STEP = MethodType.methodType(Map.class, Map.class, ChainTemplate.Cursor.class, TerminatorSet.class);
+
+    private static final MethodHandle APPLY;
+    private static final MethodHandle PUT_ERROR;
+    private static final MethodHandle HAS_ERROR;
+    private static final MethodHandle NO_ERROR;
+    private static final MethodHandle REMOVE_QUEUE;
+    private static final MethodHandle ADVANCE;
+    private static final MethodHandle DIVERGED;
+    private static final MethodHandle FINISH;
+    private static final MethodHandle TERMINATES;
+    private static final MethodHandle TIMED_OUT;
+    private static final MethodHandle START;
+    private static final MethodHandle TEMPLATE_ENTER;
+    private static final MethodHandle TEMPLATE_EXECUTE;
+    private static final MethodHandle TEMPLATE_CURSOR;
+
+    static {
+        try {
+            APPLY = LOOKUP.findVirtual(Function.class, "apply", MethodType.methodType(Object.class, Object.class));
+            PUT_ERROR = LOOKUP.findStatic(ChainCompiler.class, "putError", MethodType.methodType(Map.class, Throwable.class, Map.class));
+            HAS_ERROR = LOOKUP.findStatic(ChainCompiler.class, "hasError", MethodType.methodType(boolean.class, Map.class));
+            NO_ERROR = LOOKUP.findStatic(ChainCompiler.class, "noError", MethodType.methodType(boolean.class, Map.class));
+            REMOVE_QUEUE = LOOKUP.findStatic(ChainCompiler.class, "removeQueue", STAGE);
+            ADVANCE = LOOKUP.findStatic(ChainCompiler.class, "advance",
+                                        MethodType.methodType(Map.class, Map.class, ChainTemplate.Cursor.class, int.class, boolean.class));
+            DIVERGED = LOOKUP.findStatic(ChainCompiler.class, "diverged",
+                                         MethodType.methodType(boolean.class, ChainTemplate.Cursor.class, int.class));
+            FINISH = LOOKUP.findStatic(ChainCompiler.class, "finish",
+                                       MethodType.methodType(Map.class, ChainTemplate.class, Map.class, ChainTemplate.Cursor.class, TerminatorSet.class));
+            TERMINATES = LOOKUP.findVirtual(TerminatorSet.class, "test", MethodType.methodType(boolean.class, Map.class));
+            TIMED_OUT = LOOKUP.findStatic(Deadline.class, "timedOut", MethodType.methodType(boolean.class, Map.class));
+            START = LOOKUP.findStatic(ChainCompiler.class, "start",
+                                      MethodType.methodType(TerminatorSet.class, ChainTemplate.class, Map.class, ChainTemplate.Cursor.class));
+            TEMPLATE_ENTER = LOOKUP.findVirtual(ChainTemplate.class, "enter", STEP);
+            TEMPLATE_EXECUTE = LOOKUP.findVirtual(ChainTemplate.class, "execute",
+                                                  MethodType.methodType(Map.class, Map.class, ChainTemplate.Cursor.class));
+            TEMPLATE_CURSOR = LOOKUP.findVirtual(ChainTemplate.class, "cursor", MethodType.methodType(ChainTemplate.Cursor.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static CompiledChain compile(List<? extends IInterceptor> interceptors, List<Predicate<Map<Object,Object>>> terminators) {
+        return compile(new ChainTemplate(interceptors, terminators));
+    }
+    public static CompiledChain compile(IInterceptor... interceptors) {
+        return compile(new ChainTemplate(interceptors));
+    }
+
+    public static CompiledChain compile(ChainTemplate template) {
+        MethodHandle execute;
+        if (Chain.INSTRUMENTED) {
+            execute = TEMPLATE_EXECUTE.bindTo(template);
+        } else {
+            MethodHandle[][] unwinds = unwinds(template);
+            MethodHandle step = enterSteps(template, unwinds[0], unwinds[1]);
+            // (context, cursor) -> reset the cursor and find the terminators, then run the first step
+            MethodHandle start = START.bindTo(template);
+            execute = MethodHandles.foldArguments(MethodHandles.permuteArguments(step,
+                                                                                 MethodType.methodType(Map.class,
+                                                                                                       TerminatorSet.class,
+                                                                                                       Map.class,
+                                                                                                       ChainTemplate.Cursor.class),
+                                                                                 1, 2, 0),
+                                                  start);
+        }
+        // context -> (a new cursor, context)
+        MethodHandle withCursor = MethodHandles.foldArguments(MethodHandles.permuteArguments(execute,
+                                                                                             MethodType.methodType(Map.class,
+                                                                                                                   ChainTemplate.Cursor.class,
+                                                                                                                   Map.class),
+                                                                                             1, 0),
+                                                              TEMPLATE_CURSOR.bindTo(template));
+        return new CompiledChain(template, execute, withCursor);
+    }
+
+    // A stage function as a (Map)Map handle; anything it throws is placed in the Context as "error"
+    private static MethodHandle stage(Function<Map<Object,Object>,Map<Object,Object>> fn) {
+        MethodHandle call = APPLY.bindTo(fn).asType(STAGE);
+        return MethodHandles.catchException(call, Throwable.class, PUT_ERROR);
+    }
+
+    /**
+     * The unwind sequences, one per stack position: `leaving[k]` (or `erroring[k]`) unwinds the Interceptors 0..k
+     * starting in the Leave (or Error) Phase.  They're built bottom-up, so each one shares the sequences below it.
+     * Returns {leaving, erroring}.
+     */
+    private static MethodHandle[][] unwinds(ChainTemplate template) {
+        int n = template.interceptors.length;
+        MethodHandle identity = MethodHandles.identity(Map.class);
+        MethodHandle leaving = identity;
+        MethodHandle erroring = identity;
+        MethodHandle[][] result = new MethodHandle[2][n];
+        for (int k = 0; k < n; k++) {
+            if (template.unwinds[k]) {
+                MethodHandle nextLeaving = leaving;
+                MethodHandle nextErroring = erroring;
+                if (template.leaves[k] != null) {
+                    leaving = MethodHandles.filterReturnValue(stage(template.leaves[k]),
+                                                              MethodHandles.guardWithTest(HAS_ERROR, nextErroring, nextLeaving));
+                }
+                MethodHandle callError = (template.errors[k] != null) ?
+                                         MethodHandles.filterReturnValue(stage(template.errors[k]), nextErroring) :
+                                         nextErroring;
+                erroring = MethodHandles.guardWithTest(NO_ERROR, leaving, callError);
+            }
+            result[0][k] = leaving;
+            result[1][k] = erroring;
+        }
+        return result;
+    }
+
+    /**
+     * The enter steps, built back to front so each step can fall through to the next.
+     */
+    private static MethodHandle enterSteps(ChainTemplate template, MethodHandle[] leaving, MethodHandle[] erroring) {
+        int n = template.interceptors.length;
+        MethodHandle fallback = TEMPLATE_ENTER.bindTo(template);
+        MethodHandle next = FINISH.bindTo(template);
+        MethodHandle hasError = MethodHandles.dropArguments(HAS_ERROR, 1, ChainTemplate.Cursor.class, TerminatorSet.class);
+        MethodHandle timedOut = MethodHandles.dropArguments(TIMED_OUT, 1, ChainTemplate.Cursor.class, TerminatorSet.class);
+        // (context, cursor, terminators) -> terminators.test(context)
+        MethodHandle terminates = MethodHandles.permuteArguments(MethodHandles.dropArguments(TERMINATES, 2, ChainTemplate.Cursor.class),
+                                                                 MethodType.methodType(boolean.class,
+                                                                                       Map.class,
+                                                                                       ChainTemplate.Cursor.class,
+                                                                                       TerminatorSet.class),
+                                                                 2, 0, 1);
+
+        for (int i = n - 1; i >= 0; i--) {
+            // After the enter: unwind on an error, terminate, hand off to the template if the queue was changed, or continue
+            MethodHandle diverged = MethodHandles.dropArguments(MethodHandles.insertArguments(DIVERGED, 1, i + 1),
+                                                                0, Map.class);
+            diverged = MethodHandles.dropArguments(diverged, 2, TerminatorSet.class);
+            MethodHandle proceed = MethodHandles.guardWithTest(diverged, fallback, next);
+            MethodHandle terminate = MethodHandles.dropArguments(MethodHandles.filterReturnValue(REMOVE_QUEUE, leaving[i]),
+                                                                 1, ChainTemplate.Cursor.class, TerminatorSet.class);
+            MethodHandle unwind = MethodHandles.dropArguments(erroring[i], 1, ChainTemplate.Cursor.class, TerminatorSet.class);
+            MethodHandle after = MethodHandles.guardWithTest(hasError,
+                                                             unwind,
+                                                             MethodHandles.guardWithTest(terminates, terminate, proceed));
+
+            // The enter itself: advance the cursor (keeping it in sync for any hand-off), then call the enter function
+            MethodHandle advance = MethodHandles.insertArguments(ADVANCE, 2, i, template.unwinds[i]);
+            MethodHandle enter = (template.enters[i] != null) ?
+                                 MethodHandles.filterReturnValue(advance, stage(template.enters[i])) :
+                                 advance;
+            next = MethodHandles.foldArguments(MethodHandles.dropArguments(after, 1, Map.class), enter);
+
+            // Before the enter: if the Deadline has passed, unwind what's already been entered
+            MethodHandle timeout = MethodHandles.dropArguments((i > 0) ? erroring[i - 1] : MethodHandles.identity(Map.class),
+                                                               1, ChainTemplate.Cursor.class, TerminatorSet.class);
+            next = MethodHandles.guardWithTest(timedOut, timeout, next);
+        }
+        return next;
+    }
+
+    /* Building blocks
+     * -----------------*/
+    private static Map<Object,Object> putError(Throwable t, Map<Object,Object> context) {
+        context.put("error", t);
+        return context;
+    }
+
+    private static boolean hasError(Map<Object,Object> context) {
+        return Chain.errorOf(context) != null;
+    }
+
+    private static boolean noError(Map<Object,Object> context) {
+        return Chain.errorOf(context) == null;
+    }
+
+    private static Map<Object,Object> removeQueue(Map<Object,Object> context) {
+        context.remove("dais.queue");
+        return context;
+    }
+
+    private static Map<Object,Object> advance(Map<Object,Object> context, ChainTemplate.Cursor cursor, int index, boolean unwinds) {
+        cursor.next = index + 1;
+        if (unwinds) {
+            cursor.pushIndex(index);
+        }
+        return context;
+    }
+
+    // Did an Interceptor change the queue, so the next step isn't the next template Interceptor?
+    // (Including polling from the back, which drops the template's last steps)
+    private static boolean diverged(ChainTemplate.Cursor cursor, int next) {
+        return cursor.next != next ||
+               cursor.end != cursor.template.interceptors.length ||
+               (cursor.front != null && !cursor.front.isEmpty());
+    }
+
+    // The template is done; anything pushed onto the back of the queue is left to the template
+    private static Map<Object,Object> finish(ChainTemplate template,
+                                             Map<Object,Object> context,
+                                             ChainTemplate.Cursor cursor,
+                                             TerminatorSet terminators) {
+        return cursor.isEmpty() ? context : template.enter(context, cursor, terminators);
+    }
+
+    private static TerminatorSet start(ChainTemplate template, Map<Object,Object> context, ChainTemplate.Cursor cursor) {
+        cursor.reset(template);
+        context.put("dais.queue", cursor);
+        return template.terminatorsFor(context);
+    }
+}
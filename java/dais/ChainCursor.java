@@ -0,0 +1,323 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Deque;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Predicate;
+
+import dais.IInterceptor;
+import dais.ChainTemplate;
+import dais.ChainMetrics;
+import dais.ChainEvents;
+import dais.SlotContext;
+import dais.Deadline;
+import dais.Chain;
+
+/**
+ * Dais ChainCursor
+ *
+ * The execution state of a Chain -- its phase (enter, leave, or error), its position in the queue, and its stack --
+ * as an explicit state machine.  Running a cursor is a single loop, so the native stack stays the same depth
+ * however long the chain is, and however many times it moves between the Leave and Error Phases.
+ * The Chain's `handle*` functions are all run on a ChainCursor (see Chain for the execution rules).
+ *
+ * Error Phase: error functions are called (in reverse) while there's an "error" in the Context; once it's handled,
+ * the rest of the stack is unwound with leave functions.  A leave or error function that throws
+ * replaces the "error", and unwinding continues (the same as the other executors).
+ *
+ * A cursor can be paused, and resumed later (on any thread), so a chain that's waiting on something (eg: I/O)
+ * doesn't hold a thread:
+ *
+ *   ChainCursor cursor = new ChainCursor(ctx);        // Takes the queue, stack, and Terminators from the Context
+ *   ctx = cursor.run();                                // Runs until the chain finishes, or a stage pauses it
+ *   ...
+ *   // Inside a stage function:
+ *   ChainCursor.of(ctx).pause();                       // The cursor stops once this function returns
+ *   ...
+ *   // Later, when the I/O completes:
+ *   ctx = cursor.resume();
+ *
+ * A cursor created from a Context is published in it as "dais.cursor" (and removed once the chain finishes),
+ * so the stage functions can find it.  (The cursors the Chain runs internally aren't published, and can't be paused.)
+ * If the cursor is resumed before the pausing stage has returned (eg: the I/O callback fires right away),
+ * the running thread just carries on, and `resume` returns null.
+ * Hand a paused cursor to another thread through something that publishes it safely (eg: a queue or a future).
+ */
+public final class ChainCursor {
+
+    public static final String KEY = "dais.cursor";
+
+    // Phases
+    public static final int ENTER = 0;
+    public static final int LEAVE = 1;
+    public static final int ERROR = 2;
+    public static final int DONE = 3;
+
+    // Run states
+    private static final int RUNNING = 0;
+    private static final int PAUSING = 1;
+    private static final int PAUSED = 2;
+
+    private static final AtomicIntegerFieldUpdater<ChainCursor> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(ChainCursor.class, "state");
+
+    private Map<Object,Object> context;
+    // A Deque, or an IInterceptor[] (read from `position`)
+    private Object queue;
+    private int position;
+    private Deque<IInterceptor> stack;
+    private List<Predicate<Map<Object,Object>>> terminators;
+    private boolean published;
+    private int phase;
+    private volatile int state = RUNNING;
+
+    ChainCursor(Map<Object,Object> context,
+                Object queue,
+                Deque<IInterceptor> stack,
+                List<Predicate<Map<Object,Object>>> terminators,
+                int phase) {
+        this.context = context;
+        this.queue = queue;
+        this.stack = stack;
+        this.terminators = terminators;
+        this.phase = phase;
+        this.published = false;
+    }
+
+    // Reuse an (unpublished, so never paused) cursor for another execution -- pooled SlotContexts keep one (see ContextPool)
+    ChainCursor reset(Map<Object,Object> context,
+                      Object queue,
+                      Deque<IInterceptor> stack,
+                      List<Predicate<Map<Object,Object>>> terminators,
+                      int phase) {
+        this.context = context;
+        this.queue = queue;
+        this.position = 0;
+        this.stack = stack;
+        this.terminators = terminators;
+        this.phase = phase;
+        return this;
+    }
+
+    /**
+     * A cursor for the Context's "dais.queue", "dais.stack" (if it has one), and "dais.terminators",
+     * published in the Context as "dais.cursor"
+     */
+    @SuppressWarnings("unchecked")
+    public ChainCursor(Map<Object,Object> context) {
+        Object queue = (context instanceof SlotContext) ? ((SlotContext) context).queue : context.get("dais.queue");
+        Object stack = (context instanceof SlotContext) ? ((SlotContext) context).stack : context.get("dais.stack");
+        Object terminators = (context instanceof SlotContext) ? ((SlotContext) context).terminators : context.get("dais.terminators");
+        if (queue instanceof ChainTemplate) {
+            throw new IllegalArgumentException("A ChainTemplate queue can't be run on a ChainCursor; use the template's Cursor as the queue");
+        }
+        if (queue != null && !(queue instanceof Deque) && !(queue instanceof IInterceptor[])) {
+            throw new IllegalArgumentException("The \"dais.queue\" must be a Deque or an IInterceptor[]");
+        }
+        this.context = context;
+        this.queue = queue;
+        this.stack = (stack != null) ? (Deque<IInterceptor>) stack : new ArrayDeque<IInterceptor>();
+        this.terminators = (List<Predicate<Map<Object,Object>>>) terminators;
+        this.phase = (queue != null) ? ENTER : DONE;
+        this.published = true;
+        context.put(KEY, this);
+    }
+
+    /**
+     * The cursor running the Context's chain, or null
+     */
+    public static ChainCursor of(Map<Object,Object> context) {
+        Object cursor = context.get(KEY);
+        return (cursor instanceof ChainCursor) ? (ChainCursor) cursor : null;
+    }
+
+    /* State
+     * -----------------*/
+    public int phase() {
+        return this.phase;
+    }
+    public boolean isDone() {
+        return this.phase == DONE;
+    }
+    public boolean isPaused() {
+        return this.state != RUNNING;
+    }
+    public Map<Object,Object> context() {
+        return this.context;
+    }
+    public Deque<IInterceptor> stack() {
+        return this.stack;
+    }
+
+    public String toString() {
+        return "ChainCursor[" + ((this.phase == ENTER) ? "enter" :
+                                 (this.phase == LEAVE) ? "leave" :
+                                 (this.phase == ERROR) ? "error" : "done") +
+               (isPaused() ? ", paused" : "") + ", stack=" + ((this.stack != null) ? this.stack.size() : 0) + "]";
+    }
+
+    /* Pausing
+     * -----------------*/
+    /**
+     * Pause the cursor once the current stage function returns.  Called from within a stage function.
+     */
+    public void pause() {
+        if (!STATE.compareAndSet(this, RUNNING, PAUSING)) {
+            throw new IllegalStateException("Only a running ChainCursor can be paused");
+        }
+    }
+
+    /**
+     * Continue a paused cursor on the calling thread, until it finishes or pauses again, and return the Context --
+     * or null, if the cursor hadn't finished pausing (and its running thread carries on instead)
+     */
+    public Map<Object,Object> resume() {
+        if (STATE.compareAndSet(this, PAUSED, RUNNING)) {
+            return run();
+        }
+        if (STATE.compareAndSet(this, PAUSING, RUNNING)) {
+            return null;
+        }
+        throw new IllegalStateException("Only a paused ChainCursor can be resumed");
+    }
+
+    // After every stage function: true if the cursor should stop here.
+    // The Context (and the rest of the cursor) is stored before the CAS, which publishes it to the resuming thread.
+    private boolean parked(Map<Object,Object> context) {
+        if (this.state == RUNNING) {
+            return false;
+        }
+        this.context = context;
+        return STATE.compareAndSet(this, PAUSING, PAUSED);
+    }
+
+    /* Running
+     * -----------------*/
+    /**
+     * Run the chain until it finishes or is paused, and return the Context
+     */
+    public Map<Object,Object> run() {
+        Map<Object,Object> context = this.context;
+        Deque<IInterceptor> stack = this.stack;
+        while (true) {
+            switch (this.phase) {
+                case ENTER: {
+                    // The Deadline is only checked when there's another Interceptor to enter
+                    IInterceptor interceptor;
+                    int remaining;
+                    if (this.queue instanceof IInterceptor[]) {
+                        IInterceptor[] queue = (IInterceptor[]) this.queue;
+                        if (this.position >= queue.length) {
+                            this.phase = DONE;
+                            break;
+                        }
+                        if (Deadline.timedOut(context)) {
+                            this.phase = ERROR;
+                            break;
+                        }
+                        interceptor = queue[this.position++];
+                        remaining = queue.length - this.position;
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        Deque<IInterceptor> queue = (Deque<IInterceptor>) this.queue;
+                        if (queue.isEmpty()) {
+                            this.phase = DONE;
+                            break;
+                        }
+                        if (Deadline.timedOut(context)) {
+                            this.phase = ERROR;
+                            break;
+                        }
+                        interceptor = queue.pollFirst();
+                        remaining = Chain.INSTRUMENTED ? queue.size() : -1;
+                    }
+                    if (interceptor == null) {
+                        context.remove("dais.queue");
+                        this.phase = LEAVE;
+                        break;
+                    }
+                    stack.offerFirst(interceptor); // Pushing to the front allows iteration without reversing
+
+                    try {
+                        context = Chain.INSTRUMENTED ?
+                                  Chain.instrumented(ChainMetrics.ENTER, interceptor, context, remaining, stack.size()) :
+                                  IInterceptor.enter(interceptor, context);
+                    } catch (Throwable t) {
+                        context.put("error", t);
+                    }
+                    if (Chain.errorOf(context) != null) {
+                        this.phase = ERROR;
+                    } else if (this.terminators != null && Chain.terminates(context, this.terminators)) {
+                        if (Chain.INSTRUMENTED) {
+                            Chain.terminated(interceptor, remaining, stack.size());
+                        }
+                        context.remove("dais.queue");
+                        this.phase = LEAVE;
+                    }
+                    if (parked(context)) {
+                        return context;
+                    }
+                    break;
+                }
+                case LEAVE: {
+                    IInterceptor interceptor = stack.pollFirst(); // Our 'stack' is already "reversed" so grab the head
+                    if (interceptor == null) {
+                        this.phase = DONE;
+                        break;
+                    }
+                    try {
+                        context = Chain.INSTRUMENTED ?
+                                  Chain.instrumented(ChainMetrics.LEAVE, interceptor, context, -1, stack.size()) :
+                                  IInterceptor.leave(interceptor, context);
+                    } catch (Throwable t) {
+                        context.put("error", t);
+                    }
+                    if (Chain.errorOf(context) != null) {
+                        this.phase = ERROR;
+                    }
+                    if (parked(context)) {
+                        return context;
+                    }
+                    break;
+                }
+                case ERROR: {
+                    if (Chain.errorOf(context) == null) {
+                        this.phase = LEAVE;
+                        break;
+                    }
+                    IInterceptor interceptor = stack.pollFirst();
+                    if (interceptor == null) {
+                        this.phase = DONE;
+                        break;
+                    }
+                    try {
+                        if (Chain.INSTRUMENTED) {
+                            context = Chain.instrumented(ChainMetrics.ERROR, interceptor, context, -1, stack.size());
+                            if (ChainEvents.ENABLED && Chain.errorOf(context) == null) {
+                                ChainEvents.errorHandled(interceptor, stack.size());
+                            }
+                        } else {
+                            context = IInterceptor.error(interceptor, context);
+                        }
+                    } catch (Throwable t) {
+                        // A throwing error function replaces the error, and unwinding continues
+                        context.put("error", t);
+                    }
+                    if (parked(context)) {
+                        return context;
+                    }
+                    break;
+                }
+                default: {
+                    if (this.published) {
+                        context.remove(KEY);
+                    }
+                    return this.context = context;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+
+package dais;
+
+import java.util.Map;
+
+import dais.Chain;
+
+/**
+ * Dais ChainError
+ *
+ * A cheap error signal for expected outcomes (validation failures, not-found, etc).
+ *
+ * Most of the cost of an exception is filling in its stack trace; ChainErrors don't have one,
+ * so raising a ChainError costs about the same as a normal Interceptor step.
+ * A ChainError has a `code` (anything with a stable equals -- a keyword, a String, an Integer),
+ * a message, and an optional `payload` (eg: the validation problems, or the missing id).
+ *
+ * Errors are best defined once and raised many times:
+ *
+ *   public static final ChainError NOT_FOUND = ChainError.define("not-found", "Resource not found");
+ *
+ *   ctx -> ChainError.raise(ctx, NOT_FOUND)                  // no allocation at all
+ *   ctx -> ChainError.raise(ctx, NOT_FOUND, ctx.get("id"))   // one small (stackless) allocation
+ *   ctx -> { throw NOT_FOUND; }                              // also works, but unwinding the throw costs more
+ *
+ * Raising places the error in the Context as "error", so the Chain goes straight to the Error Phase
+ * without any exception being thrown.  Error functions can check for it with `ChainError.is(ctx, NOT_FOUND)`,
+ * and read it with `ChainError.of(ctx)`.
+ *
+ * Stack trace policy (`-Ddais.error.stacktraces=...`):
+ *  - "unexpected" (the default): ChainErrors are stackless; every other Throwable keeps its stack trace,
+ *    so stack traces are only paid for (and only show up in logs) for unexpected failures.
+ *  - "all": ChainErrors created per-raise (the constructors, `withPayload`, `raise(ctx, error, payload)`) also capture
+ *    a stack trace, to find where an expected error came from while debugging.
+ *    Defined (shared) ChainErrors never have a stack trace.
+ *
+ * ChainErrors don't record suppressed exceptions, so defined ones can safely be shared across threads.
+ */
+public class ChainError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String STACK_TRACES = System.getProperty("dais.error.stacktraces", "unexpected");
+    static final boolean CAPTURE_STACK_TRACES = "all".equals(STACK_TRACES);
+
+    public final Object code;
+    public final Object payload;
+
+    protected ChainError(Object code, String message, Object payload, boolean stackTrace) {
+        super(message, null, false, stackTrace);
+        if (code == null) {
+            throw new IllegalArgumentException("ChainErrors require a code");
+        }
+        this.code = code;
+        this.payload = payload;
+    }
+    public ChainError(Object code, String message, Object payload) {
+        this(code, message, payload, CAPTURE_STACK_TRACES);
+    }
+    public ChainError(Object code, String message) {
+        this(code, message, null);
+    }
+
+    /**
+     * Define a shared ChainError -- hold it in a static final, and raise it as often as needed
+     */
+    public static ChainError define(Object code, String message) {
+        return new ChainError(code, message, null, false);
+    }
+
+    /**
+     * A ChainError with the same code and message, carrying the payload
+     */
+    public ChainError withPayload(Object payload) {
+        return new ChainError(this.code, getMessage(), payload);
+    }
+
+    /**
+     * Does this ChainError have the same code as the other (typically defined) ChainError?
+     */
+    public boolean is(ChainError other) {
+        return other != null && this.code.equals(other.code);
+    }
+
+    public String toString() {
+        String s = "ChainError[" + this.code + "]: " + getMessage();
+        return (this.payload != null) ? s + " " + this.payload : s;
+    }
+
+    /* Context API
+     * -----------------*/
+    public static Map<Object,Object> raise(Map<Object,Object> context, ChainError error) {
+        context.put("error", error);
+        return context;
+    }
+    public static Map<Object,Object> raise(Map<Object,Object> context, ChainError error, Object payload) {
+        context.put("error", error.withPayload(payload));
+        return context;
+    }
+    public static Map<Object,Object> raise(Map<Object,Object> context, Object code, String message, Object payload) {
+        context.put("error", new ChainError(code, message, payload));
+        return context;
+    }
+
+    /**
+     * The Context's "error", if it's a ChainError (otherwise null)
+     */
+    public static ChainError of(Map<Object,Object> context) {
+        Object err = Chain.errorOf(context);
+        return (err instanceof ChainError) ? (ChainError) err : null;
+    }
+
+    /**
+     * Is the Context's "error" a ChainError with the same code as the given one?
+     */
+    public static boolean is(Map<Object,Object> context, ChainError error) {
+        ChainError err = of(context);
+        return err != null && err.is(error);
+    }
+
+    /**
+     * Is the error an expected one (a ChainError), as opposed to an unexpected Throwable?
+     */
+    public static boolean isExpected(Object error) {
+        return error instanceof ChainError;
+    }
+}
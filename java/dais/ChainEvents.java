@@ -0,0 +1,108 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import dais.IInterceptor;
+import dais.ChainMetrics;
+
+/**
+ * Dais ChainEvents
+ *
+ * Opt-in JDK Flight Recorder events for Chain and ChainTemplate execution:
+ *  - "dais.ChainExecution": a whole Chain (initial queue depth, and the class of any unhandled "error"),
+ *  - "dais.InterceptorStage": each enter/leave/error call (Interceptor name, stage, queue and stack depth),
+ *  - "dais.Termination": a Terminator fired,
+ *  - "dais.ErrorHandled": an error function removed the "error", switching from the Error Phase to the Leave Phase.
+ * All events carry their duration, and Interceptors are identified by `IInterceptor.getName`.
+ *
+ * Events are enabled with `-Ddais.jfr=true`, and are then recorded by any JFR recording
+ * (eg: `-XX:StartFlightRecording`, or `jcmd <pid> JFR.start`) -- they can be tuned per event type in a .jfc file.
+ * `ENABLED` is a static final, so when events are off, every branch in the Chain is folded away by the JIT.
+ *
+ * The event types (FlightEvents) are the only code that refers to `jdk.jfr`, so they're kept out of the
+ * Java 8 core, in the `jfr` source path (build with the `:jfr` profile, on a JDK with Flight Recorder).
+ * They're loaded reflectively, and only when `dais.jfr` is set; if they aren't on the classpath
+ * (or the JDK has no Flight Recorder), `ENABLED` is false and events stay off.
+ * When events are on but no recording is running, each call costs an `isEnabled` check.
+ *
+ * ChainMetrics and ChainEvents can be enabled independently, or together.
+ */
+public final class ChainEvents {
+
+    /** The event types, as implemented by FlightEvents (in the `jfr` source path) */
+    interface Recorder {
+        Object beginExecution(int queueDepth, boolean template);
+        void endExecution(Object token, Map<Object,Object> context, Throwable thrown);
+        Map<Object,Object> stage(IInterceptor interceptor,
+                                 int stage,
+                                 Function<Map<Object,Object>,Map<Object,Object>> fn,
+                                 ChainMetrics.InterceptorMetrics metrics,
+                                 Map<Object,Object> context,
+                                 int queueDepth,
+                                 int stackDepth);
+        void terminated(IInterceptor interceptor, int queueDepth, int stackDepth);
+        void errorHandled(IInterceptor interceptor, int stackDepth);
+    }
+
+    private static final Recorder RECORDER = Boolean.getBoolean("dais.jfr") ? loadRecorder() : null;
+
+    public static final boolean ENABLED = (RECORDER != null);
+
+    private ChainEvents() {}
+
+    private static Recorder loadRecorder() {
+        try {
+            return (Recorder) Class.forName("dais.FlightEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /* Instrumentation -- only called when ENABLED
+     * -----------------*/
+
+    /** Returns a token for `endExecution` (null if the event isn't being recorded) */
+    static Object beginExecution(int queueDepth, boolean template) {
+        return RECORDER.beginExecution(queueDepth, template);
+    }
+
+    static Map<Object,Object> endExecution(Object token, Map<Object,Object> context) {
+        if (token != null) {
+            RECORDER.endExecution(token, context, null);
+        }
+        return context;
+    }
+
+    /** Ends the execution's event when the execution threw (the event's error is the thrown class) */
+    static void failExecution(Object token, Map<Object,Object> context, Throwable thrown) {
+        if (token != null) {
+            RECORDER.endExecution(token, context, thrown);
+        }
+    }
+
+    /**
+     * Call the stage function, recording it (and recording metrics, if `metrics` isn't null)
+     */
+    static Map<Object,Object> apply(IInterceptor interceptor,
+                                    int stage,
+                                    Function<Map<Object,Object>,Map<Object,Object>> fn,
+                                    ChainMetrics.InterceptorMetrics metrics,
+                                    Map<Object,Object> context,
+                                    int queueDepth,
+                                    int stackDepth) {
+        if (fn == null) {
+            return context;
+        }
+        return RECORDER.stage(interceptor, stage, fn, metrics, context, queueDepth, stackDepth);
+    }
+
+    static void terminated(IInterceptor interceptor, int queueDepth, int stackDepth) {
+        RECORDER.terminated(interceptor, queueDepth, stackDepth);
+    }
+
+    static void errorHandled(IInterceptor interceptor, int stackDepth) {
+        RECORDER.errorHandled(interceptor, stackDepth);
+    }
+}
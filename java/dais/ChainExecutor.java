@@ -0,0 +1,228 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.ArrayDeque;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import dais.Chain;
+import dais.ChainTemplate;
+import dais.IInterceptor;
+
+/**
+ * Dais ChainExecutor
+ *
+ * The Chain is single-threaded; the ChainExecutor runs many Chains concurrently.
+ * Contexts are submitted, and each submission returns a CompletableFuture of the final Context.
+ *
+ * Two modes are supported:
+ *  - WORK_STEALING: a ForkJoinPool of platform-thread workers (one per core by default), in FIFO (async) mode.
+ *                   Every worker owns a scratch stack and a ChainTemplate Cursor, which are reused for every Chain it runs.
+ *  - VIRTUAL_THREADS: a virtual thread per Chain.  This requires a runtime with virtual threads (JDK 21+);
+ *                     constructing a VIRTUAL_THREADS executor elsewhere throws UnsupportedOperationException.
+ *                     Virtual threads are short-lived, so nothing is reused between Chains.
+ *
+ * Submissions are bounded -- at most `capacity` Chains are queued or running at once.
+ * When the executor is full, the RejectionPolicy decides what happens:
+ *  - ABORT: `submit` throws a RejectedExecutionException,
+ *  - CALLER_RUNS: the Chain is executed on the submitting thread,
+ *  - BLOCK: `submit` waits for room.
+ *
+ * Note: When a ChainTemplate is executed on a worker, the worker's Cursor is removed from the
+ *       final Context (as "dais.queue") before the future completes, since the Cursor is reused.
+ */
+public final class ChainExecutor implements AutoCloseable {
+
+    public enum Mode { WORK_STEALING, VIRTUAL_THREADS }
+
+    public enum RejectionPolicy { ABORT, CALLER_RUNS, BLOCK }
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final RejectionPolicy rejectionPolicy;
+
+    public ChainExecutor(Mode mode, int parallelism, int capacity, RejectionPolicy rejectionPolicy) {
+        if (parallelism < 1 || capacity < 1) {
+            throw new IllegalArgumentException("ChainExecutor parallelism and capacity must be positive");
+        }
+        this.mode = mode;
+        this.permits = new Semaphore(capacity);
+        this.rejectionPolicy = rejectionPolicy;
+        if (mode == Mode.VIRTUAL_THREADS) {
+            this.executor = newVirtualThreadExecutor();
+        } else {
+            this.executor = new ForkJoinPool(parallelism, Worker::new, null, true);
+        }
+    }
+    public ChainExecutor(Mode mode) {
+        this(mode,
+             Runtime.getRuntime().availableProcessors(),
+             1024 * Runtime.getRuntime().availableProcessors(),
+             RejectionPolicy.ABORT);
+    }
+    public ChainExecutor() {
+        this(Mode.WORK_STEALING);
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads aren't available on this runtime (JDK 21+ is required)", e);
+        }
+    }
+
+    public Mode mode() {
+        return this.mode;
+    }
+
+    /**
+     * Execute the Context with `Chain.execute` (using its "dais.queue").
+     */
+    public CompletableFuture<Map<Object,Object>> submit(Map<Object,Object> context) {
+        return submit(new Task(context, null));
+    }
+
+    /**
+     * Execute the ChainTemplate against the Context.
+     */
+    public CompletableFuture<Map<Object,Object>> submit(Map<Object,Object> context, ChainTemplate template) {
+        return submit(new Task(context, template));
+    }
+
+    private CompletableFuture<Map<Object,Object>> submit(Task task) {
+        if (!this.permits.tryAcquire()) {
+            switch (this.rejectionPolicy) {
+                case CALLER_RUNS:
+                    task.runInline();
+                    return task;
+                case BLOCK:
+                    try {
+                        this.permits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting to submit a Chain", e);
+                    }
+                    break;
+                default:
+                    throw new RejectedExecutionException("ChainExecutor is at capacity");
+            }
+        }
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.permits.release();
+            throw e;
+        }
+        return task;
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, unit);
+    }
+
+    public void close() {
+        shutdown();
+        try {
+            while (!awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting for in-flight Chains
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A work-stealing worker, with scratch structures that are reused for every Chain it runs
+     */
+    static final class Worker extends ForkJoinWorkerThread {
+        final ArrayDeque<IInterceptor> stack = new ArrayDeque<IInterceptor>();
+        ChainTemplate.Cursor cursor;
+        // A Chain on this worker may submit (CALLER_RUNS) or run another Chain inline; only the outer one uses the scratch
+        boolean busy;
+
+        Worker(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        ChainTemplate.Cursor cursor(ChainTemplate template) {
+            if (this.cursor == null) {
+                this.cursor = template.cursor();
+            }
+            return this.cursor;
+        }
+    }
+
+    /**
+     * A submitted Chain -- the task is its own future, so a submission is a single allocation
+     */
+    final class Task extends CompletableFuture<Map<Object,Object>> implements Runnable {
+        final Map<Object,Object> context;
+        final ChainTemplate template;
+
+        Task(Map<Object,Object> context, ChainTemplate template) {
+            this.context = context;
+            this.template = template;
+        }
+
+        public void run() {
+            try {
+                runInline();
+            } finally {
+                ChainExecutor.this.permits.release();
+            }
+        }
+
+        void runInline() {
+            try {
+                complete(execute());
+            } catch (Throwable t) {
+                completeExceptionally(t);
+            }
+        }
+
+        private Map<Object,Object> execute() {
+            Thread thread = Thread.currentThread();
+            if (!(thread instanceof Worker) || ((Worker) thread).busy) {
+                return (this.template != null) ? this.template.execute(this.context) : Chain.execute(this.context);
+            }
+
+            Worker worker = (Worker) thread;
+            worker.busy = true;
+            try {
+                return execute(worker);
+            } finally {
+                worker.busy = false;
+            }
+        }
+
+        private Map<Object,Object> execute(Worker worker) {
+            if (this.template != null) {
+                ChainTemplate.Cursor cursor = worker.cursor(this.template);
+                Map<Object,Object> result = this.template.execute(this.context, cursor);
+                if (result.get("dais.queue") == cursor) {
+                    result.remove("dais.queue");
+                }
+                return result;
+            }
+            try {
+                return Chain.executeWithStack(this.context, worker.stack);
+            } finally {
+                worker.stack.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import dais.IInterceptor;
+import dais.Histogram;
+
+/**
+ * Dais ChainMetrics
+ *
+ * Opt-in, per-Interceptor instrumentation for Chain and ChainTemplate execution:
+ *  - enter/leave/error latency histograms (see Histogram),
+ *  - counts of terminations (a Terminator fired right after the Interceptor's enter),
+ *    errors (the Interceptor's enter or leave threw, or left an "error" in the Context),
+ *    and handled errors (the Interceptor's error function removed the "error").
+ *
+ * Metrics are aggregated by Interceptor name (see `IInterceptor.getName`).
+ *
+ * Metrics are enabled with `-Ddais.metrics=true`.
+ * `ENABLED` is a static final, so when metrics are off, every instrumentation branch in the Chain is folded away by the JIT.
+ *
+ * Results are available via `snapshot()`, or over JMX (as `dais:type=ChainMetrics`) after calling `registerMBean()`.
+ */
+public final class ChainMetrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("dais.metrics");
+
+    static final int ENTER = 0;
+    static final int LEAVE = 1;
+    static final int ERROR = 2;
+    static final String[] STAGE_NAMES = {"enter", "leave", "error"};
+
+    public static final class InterceptorMetrics {
+        public final String name;
+        final Histogram[] stages = {new Histogram(), new Histogram(), new Histogram()};
+        final LongAdder terminations = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder handledErrors = new LongAdder();
+
+        InterceptorMetrics(String name) {
+            this.name = name;
+        }
+
+        public Map<String,Object> snapshot() {
+            Map<String,Object> snapshot = new LinkedHashMap<>();
+            for (int stage = ENTER; stage <= ERROR; stage++) {
+                snapshot.put(STAGE_NAMES[stage], this.stages[stage].snapshot());
+            }
+            snapshot.put("terminations", this.terminations.sum());
+            snapshot.put("errors", this.errors.sum());
+            snapshot.put("handled-errors", this.handledErrors.sum());
+            return snapshot;
+        }
+
+        void reset() {
+            for (Histogram h : this.stages) {
+                h.reset();
+            }
+            this.terminations.reset();
+            this.errors.reset();
+            this.handledErrors.reset();
+        }
+    }
+
+    // Keyed by Interceptor name, so Interceptors built per-request (at the same call site) share their metrics
+    private static final ConcurrentHashMap<String,InterceptorMetrics> METRICS = new ConcurrentHashMap<>();
+
+    public static InterceptorMetrics of(IInterceptor interceptor) {
+        return of(interceptor.getName());
+    }
+    public static InterceptorMetrics of(String name) {
+        InterceptorMetrics metrics = METRICS.get(name);
+        return (metrics != null) ? metrics : METRICS.computeIfAbsent(name, InterceptorMetrics::new);
+    }
+
+    /* Instrumentation -- only called when ENABLED
+     * -----------------*/
+    static Map<Object,Object> apply(InterceptorMetrics metrics,
+                                    int stage,
+                                    Function<Map<Object,Object>,Map<Object,Object>> fn,
+                                    Map<Object,Object> context) {
+        if (fn == null) {
+            return context;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<Object,Object> result = fn.apply(context);
+            boolean erroring = Chain.errorOf(result) != null;
+            if (stage == ERROR) {
+                if (!erroring) {
+                    metrics.handledErrors.increment();
+                }
+            } else if (erroring) {
+                metrics.errors.increment();
+            }
+            return result;
+        } catch (Throwable t) {
+            if (stage != ERROR) {
+                metrics.errors.increment();
+            }
+            throw t;
+        } finally {
+            metrics.stages[stage].record(System.nanoTime() - start);
+        }
+    }
+
+    static void terminated(IInterceptor interceptor) {
+        of(interceptor).terminations.increment();
+    }
+    static void terminated(InterceptorMetrics metrics) {
+        metrics.terminations.increment();
+    }
+
+    /* Results
+     * -----------------*/
+
+    /**
+     * Interceptor name -> {"enter" {...}, "leave" {...}, "error" {...}, "terminations" n, "errors" n, "handled-errors" n}
+     */
+    public static Map<String,Map<String,Object>> snapshot() {
+        Map<String,Map<String,Object>> snapshot = new TreeMap<>();
+        for (InterceptorMetrics metrics : METRICS.values()) {
+            snapshot.put(metrics.name, metrics.snapshot());
+        }
+        return snapshot;
+    }
+
+    public static void reset() {
+        for (InterceptorMetrics metrics : METRICS.values()) {
+            metrics.reset();
+        }
+    }
+
+    /* JMX
+     * -----------------*/
+    public interface ChainMetricsMXBean {
+        /** Flattened snapshot, eg: "my-interceptor.enter.p99" -> nanos */
+        public Map<String,Long> getSnapshot();
+        public void reset();
+    }
+
+    static final class MXBean implements ChainMetricsMXBean {
+        public Map<String,Long> getSnapshot() {
+            Map<String,Long> flat = new TreeMap<>();
+            for (Map.Entry<String,Map<String,Object>> interceptor : snapshot().entrySet()) {
+                for (Map.Entry<String,Object> entry : interceptor.getValue().entrySet()) {
+                    String prefix = interceptor.getKey() + "." + entry.getKey();
+                    if (entry.getValue() instanceof Map) {
+                        for (Map.Entry<?,?> stat : ((Map<?,?>) entry.getValue()).entrySet()) {
+                            flat.put(prefix + "." + stat.getKey(), (Long) stat.getValue());
+                        }
+                    } else {
+                        flat.put(prefix, (Long) entry.getValue());
+                    }
+                }
+            }
+            return flat;
+        }
+        public void reset() {
+            ChainMetrics.reset();
+        }
+    }
+
+    public static final String MBEAN_NAME = "dais:type=ChainMetrics";
+
+    public static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register the ChainMetrics MBean", e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import dais.IInterceptor;
+import dais.ChainTemplate;
+
+/**
+ * Dais ChainRegistry
+ *
+ * Named, versioned chain definitions that can be swapped while traffic is running.
+ *
+ * Every definition is an immutable ChainTemplate, tagged with a version.  The registry itself is an immutable
+ * snapshot (a map of name to Definition) behind an atomic reference:
+ *  - Lookups are a single volatile read and a map lookup -- wait-free, and they never write shared state,
+ *    so there's no contention however many threads look chains up.
+ *  - Updates copy the snapshot, change the copy, and swap it in with a compare-and-set (retrying if another update won).
+ *    Updates are expected to be rare (config changes), so copying is cheap in comparison to locking every read.
+ *
+ * An execution holds on to the Definition it looked up, so in-flight executions finish on the version they started with,
+ * and executions that start after an update get the new version.  Nothing needs to be drained or paused.
+ *
+ * Versions come from a single counter, so they increase across the whole registry (a re-registered name never reuses a version).
+ */
+public final class ChainRegistry {
+
+    /**
+     * An immutable, versioned chain definition
+     */
+    public static final class Definition {
+        public final String name;
+        public final long version;
+        public final ChainTemplate template;
+
+        Definition(String name, long version, ChainTemplate template) {
+            this.name = name;
+            this.version = version;
+            this.template = template;
+        }
+
+        public Map<Object,Object> execute(Map<Object,Object> context) {
+            return this.template.execute(context);
+        }
+
+        public String toString() {
+            return "ChainRegistry.Definition[" + this.name + " v" + this.version + ", " + this.template.size() + " interceptors]";
+        }
+    }
+
+    private final AtomicReference<Map<String,Definition>> definitions =
+        new AtomicReference<Map<String,Definition>>(Collections.<String,Definition>emptyMap());
+    private final AtomicLong versions = new AtomicLong();
+
+    /* Lookups
+     * -----------------*/
+    public Definition get(String name) {
+        return this.definitions.get().get(name);
+    }
+
+    public ChainTemplate template(String name) {
+        Definition definition = get(name);
+        return (definition != null) ? definition.template : null;
+    }
+
+    /**
+     * Execute the current version of the named chain
+     */
+    public Map<Object,Object> execute(String name, Map<Object,Object> context) {
+        Definition definition = get(name);
+        if (definition == null) {
+            throw new IllegalArgumentException("No chain is registered as `" + name + "`");
+        }
+        return definition.template.execute(context);
+    }
+
+    /**
+     * An immutable view of all of the current definitions, consistent as of a single point in time
+     */
+    public Map<String,Definition> snapshot() {
+        return this.definitions.get();
+    }
+
+    public Set<String> names() {
+        return snapshot().keySet();
+    }
+
+    /* Updates
+     * -----------------*/
+    /**
+     * Register (or replace) the named chain, returning its new Definition
+     */
+    public Definition register(String name, ChainTemplate template) {
+        if (name == null || template == null) {
+            throw new IllegalArgumentException("Chains are registered with a name and a ChainTemplate");
+        }
+        while (true) {
+            Map<String,Definition> current = this.definitions.get();
+            Definition definition = new Definition(name, this.versions.incrementAndGet(), template);
+            if (swap(current, name, definition)) {
+                return definition;
+            }
+        }
+    }
+    public Definition register(String name, IInterceptor... interceptors) {
+        return register(name, new ChainTemplate(interceptors));
+    }
+
+    /**
+     * Register (or replace) several chains at once -- readers see all of them change together, or none
+     */
+    public Map<String,Definition> registerAll(Map<String,ChainTemplate> templates) {
+        while (true) {
+            Map<String,Definition> current = this.definitions.get();
+            Map<String,Definition> updated = new HashMap<>(current);
+            for (Map.Entry<String,ChainTemplate> entry : templates.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    throw new IllegalArgumentException("Chains are registered with a name and a ChainTemplate");
+                }
+                updated.put(entry.getKey(), new Definition(entry.getKey(), this.versions.incrementAndGet(), entry.getValue()));
+            }
+            Map<String,Definition> frozen = Collections.unmodifiableMap(updated);
+            if (this.definitions.compareAndSet(current, frozen)) {
+                return frozen;
+            }
+        }
+    }
+
+    /**
+     * Replace the named chain only if its current version is `expectedVersion` (optimistic concurrency for updaters).
+     * Returns the new Definition, or null if the chain was changed (or removed) in the meantime.
+     */
+    public Definition replace(String name, long expectedVersion, ChainTemplate template) {
+        while (true) {
+            Map<String,Definition> current = this.definitions.get();
+            Definition existing = current.get(name);
+            if (existing == null || existing.version != expectedVersion) {
+                return null;
+            }
+            Definition definition = new Definition(name, this.versions.incrementAndGet(), template);
+            if (swap(current, name, definition)) {
+                return definition;
+            }
+        }
+    }
+
+    /**
+     * Remove the named chain, returning the Definition that was removed (or null)
+     */
+    public Definition remove(String name) {
+        while (true) {
+            Map<String,Definition> current = this.definitions.get();
+            Definition existing = current.get(name);
+            if (existing == null || swap(current, name, null)) {
+                return existing;
+            }
+        }
+    }
+
+    // Copy-on-write: a null definition removes the name
+    private boolean swap(Map<String,Definition> current, String name, Definition definition) {
+        Map<String,Definition> updated = new HashMap<>(current);
+        if (definition != null) {
+            updated.put(name, definition);
+        } else {
+            updated.remove(name);
+        }
+        return this.definitions.compareAndSet(current, Collections.unmodifiableMap(updated));
+    }
+
+    public String toString() {
+        return "ChainRegistry" + snapshot().values();
+    }
+}
@@ -0,0 +1,111 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import dais.ChainTemplate;
+import dais.ChainExecutor;
+
+/**
+ * Dais ChainStream
+ *
+ * Executes a ChainTemplate over a (possibly unbounded) sequence of Contexts, lazily --
+ * a record is only pulled from the input when a result is pulled from the ChainStream,
+ * so memory use doesn't depend on the size of the input.
+ *
+ * Sequential (the default): every record is executed on the consuming thread, one at a time,
+ * reusing a single Cursor (and so its stack) for the whole stream.
+ *
+ * Ordered-parallel: records are submitted to a ChainExecutor, up to `readAhead` ahead of the consumer,
+ * and results are returned in input order.  At most `readAhead` records are read but not yet consumed,
+ * so a slow consumer applies backpressure all the way to the input.
+ * The executor's workers reuse their own Cursors (see ChainExecutor); `readAhead` should fit within the executor's capacity.
+ *
+ * Results never hold on to the reused Cursor -- if the Cursor is still the "dais.queue" when a record finishes,
+ * it's removed from the result.
+ * A ChainStream is an Iterator (and can be wrapped as a sequential Stream); like any Iterator, it's single-consumer.
+ */
+public final class ChainStream implements Iterator<Map<Object,Object>> {
+
+    private final Iterator<? extends Map<Object,Object>> input;
+    private final ChainTemplate template;
+
+    // Sequential
+    private final ChainTemplate.Cursor cursor;
+
+    // Ordered-parallel
+    private final ChainExecutor executor;
+    private final int readAhead;
+    private final ArrayDeque<CompletableFuture<Map<Object,Object>>> inFlight;
+
+    public ChainStream(Iterator<? extends Map<Object,Object>> input, ChainTemplate template) {
+        this.input = input;
+        this.template = template;
+        this.cursor = template.cursor();
+        this.executor = null;
+        this.readAhead = 0;
+        this.inFlight = null;
+    }
+    public ChainStream(Iterator<? extends Map<Object,Object>> input, ChainTemplate template, ChainExecutor executor, int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("The read-ahead must be at least 1");
+        }
+        this.input = input;
+        this.template = template;
+        this.cursor = null;
+        this.executor = executor;
+        this.readAhead = readAhead;
+        this.inFlight = new ArrayDeque<>(readAhead);
+    }
+
+    /**
+     * The ChainStream as a (sequential, ordered) Stream
+     */
+    public Stream<Map<Object,Object>> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public boolean hasNext() {
+        return (this.inFlight != null && !this.inFlight.isEmpty()) || this.input.hasNext();
+    }
+
+    public Map<Object,Object> next() {
+        if (this.executor == null) {
+            Map<Object,Object> context = this.input.next();
+            Map<Object,Object> result = this.template.execute(context, this.cursor);
+            if (result.get("dais.queue") == this.cursor) {
+                result.remove("dais.queue");
+            }
+            return result;
+        }
+
+        while (this.inFlight.size() < this.readAhead && this.input.hasNext()) {
+            this.inFlight.addLast(this.executor.submit(this.input.next(), this.template));
+        }
+        CompletableFuture<Map<Object,Object>> result = this.inFlight.pollFirst();
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Chain execution failed", cause);
+        }
+    }
+}
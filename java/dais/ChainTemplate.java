@@ -0,0 +1,661 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Deque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Collections;
+import java.util.AbstractCollection;
+import java.util.NoSuchElementException;
+
+import java.util.ArrayDeque;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import dais.IInterceptor;
+import dais.ChainMetrics;
+import dais.ChainEvents;
+import dais.SlotContext;
+import dais.TerminatorSet;
+import dais.Deadline;
+
+/**
+ * Dais ChainTemplate
+ *
+ * An immutable, precompiled chain: a fixed sequence of IInterceptors and Terminators,
+ * built once and shared freely across threads.
+ *
+ * The enter/leave/error functions of every IInterceptor are captured when the template is built,
+ * so the template is a snapshot -- IInterceptors whose `getEnter()` (etc) change over time won't be seen.
+ * IInterceptors with neither a leave nor an error function are never placed on the stack,
+ * because unwinding through them can't have any effect.
+ *
+ * Executing a template doesn't copy the queue.  Each execution gets a Cursor (an index into the template,
+ * plus a stack of template indices), and the Cursor is placed in the Context as the "dais.queue".
+ * The Cursor is a full Deque, so Interceptors can still push (addFirst/addLast), inspect, or `clear` the queue,
+ * exactly as they would with the ArrayDeque built by `Chain.execute`.
+ *
+ * The execution semantics match `Chain.execute`:
+ *  - Enter Phase until the queue is empty (at which point the Context is returned),
+ *  - an "error" in the Context (or a thrown exception) switches to the Error Phase,
+ *  - a Terminator (or a null Interceptor pushed on the queue) removes the "dais.queue" and starts the Leave Phase.
+ *
+ * The only difference is in how an exception thrown from an `error` function is treated;
+ * here it always replaces the current "error" and unwinding continues with the next Interceptor on the stack.
+ *
+ * Terminators given to the template are used for every execution.
+ * If the template has no Terminators, the Context's "dais.terminators" (if any) are used, as in `Chain`.
+ */
+public final class ChainTemplate {
+
+    private static final IInterceptor[] NO_INTERCEPTORS = new IInterceptor[0];
+
+    final IInterceptor[] interceptors;
+    final Function<Map<Object,Object>,Map<Object,Object>>[] enters;
+    final Function<Map<Object,Object>,Map<Object,Object>>[] leaves;
+    final Function<Map<Object,Object>,Map<Object,Object>>[] errors;
+    final boolean[] unwinds;
+    final Predicate<Map<Object,Object>>[] terminators;
+    final TerminatorSet terminatorSet;
+    final ChainMetrics.InterceptorMetrics[] metrics;
+
+    public ChainTemplate(List<? extends IInterceptor> interceptors,
+                         List<Predicate<Map<Object,Object>>> terminators) {
+        this.interceptors = (interceptors != null) ? interceptors.toArray(NO_INTERCEPTORS) : NO_INTERCEPTORS;
+        this.terminators = (terminators != null) ? nonNull(terminators.toArray(TerminatorSet.NO_PREDICATES)) : TerminatorSet.NO_PREDICATES;
+        this.terminatorSet = TerminatorSet.of(this.terminators);
+
+        int n = this.interceptors.length;
+        this.enters = stageFns(n);
+        this.leaves = stageFns(n);
+        this.errors = stageFns(n);
+        this.unwinds = new boolean[n];
+        this.metrics = ChainMetrics.ENABLED ? new ChainMetrics.InterceptorMetrics[n] : null;
+        for (int i = 0; i < n; i++) {
+            IInterceptor interceptor = this.interceptors[i];
+            if (interceptor == null) {
+                throw new IllegalArgumentException("ChainTemplates can't contain null Interceptors; found one at index " + i);
+            }
+            this.enters[i] = interceptor.getEnter();
+            this.leaves[i] = interceptor.getLeave();
+            this.errors[i] = interceptor.getError();
+            this.unwinds[i] = (this.leaves[i] != null || this.errors[i] != null);
+            if (ChainMetrics.ENABLED) {
+                this.metrics[i] = ChainMetrics.of(interceptor);
+            }
+        }
+    }
+    public ChainTemplate(List<? extends IInterceptor> interceptors) {
+        this(interceptors, null);
+    }
+    public ChainTemplate(IInterceptor... interceptors) {
+        this(Arrays.asList(interceptors), null);
+    }
+
+    public static ChainTemplate of(List<Predicate<Map<Object,Object>>> terminators, IInterceptor... interceptors) {
+        return new ChainTemplate(Arrays.asList(interceptors), terminators);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Map<Object,Object>,Map<Object,Object>>[] stageFns(int n) {
+        return (Function<Map<Object,Object>,Map<Object,Object>>[]) new Function<?,?>[n];
+    }
+
+    private static Predicate<Map<Object,Object>>[] nonNull(Predicate<Map<Object,Object>>[] terminators) {
+        int count = 0;
+        for (Predicate<Map<Object,Object>> p : terminators) {
+            if (p != null) {
+                terminators[count++] = p;
+            }
+        }
+        return (count == terminators.length) ? terminators : Arrays.copyOf(terminators, count);
+    }
+
+    public int size() {
+        return this.interceptors.length;
+    }
+
+    public IInterceptor interceptor(int index) {
+        return this.interceptors[index];
+    }
+
+    public List<IInterceptor> interceptors() {
+        return Collections.unmodifiableList(Arrays.asList(this.interceptors));
+    }
+
+    public List<Predicate<Map<Object,Object>>> terminatorList() {
+        return Collections.unmodifiableList(Arrays.asList(this.terminators));
+    }
+
+    public Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    public Map<Object,Object> execute(Map<Object,Object> context) {
+        return execute(context, new Cursor(this));
+    }
+
+    /**
+     * Execute the template against the Context, using (and resetting) the given Cursor.
+     * Cursors can be reused for any number of sequential executions, but never concurrently.
+     */
+    public Map<Object,Object> execute(Map<Object,Object> context, Cursor cursor) {
+        cursor.reset(this);
+        context.put("dais.queue", cursor);
+        if (ChainEvents.ENABLED) {
+            Object event = ChainEvents.beginExecution(this.interceptors.length, true);
+            Map<Object,Object> result;
+            try {
+                result = enter(context, cursor, terminatorsFor(context));
+            } catch (Throwable t) {
+                ChainEvents.failExecution(event, context, t);
+                throw t;
+            }
+            return ChainEvents.endExecution(event, result);
+        }
+        return enter(context, cursor, terminatorsFor(context));
+    }
+
+    /**
+     * Execute the template against every Context in the batch, in stage-major order:
+     * the first Interceptor's enter runs against every Context, then the second Interceptor's enter, and so on.
+     * Keeping one Interceptor (its code and its data) hot across the whole batch is friendlier to the
+     * instruction cache and to the JIT than walking the whole chain once per Context.
+     *
+     * Every Context behaves exactly as if it had been executed alone.
+     * Each one gets its own Cursor (and so its own stack), and termination and errors are tracked per Context.
+     * A Context drops out of the stage-major loop as soon as it does anything other than run the next template step --
+     * it errors, hits a Terminator, or an Interceptor changes its queue -- and it's then run to completion by itself.
+     *
+     * Returns the final Contexts, in the same order as the batch.
+     */
+    public List<Map<Object,Object>> executeBatch(List<Map<Object,Object>> batch) {
+        int count = batch.size();
+        @SuppressWarnings("unchecked")
+        Map<Object,Object>[] contexts = (Map<Object,Object>[]) batch.toArray(new Map<?,?>[count]);
+        Cursor[] cursors = new Cursor[count];
+        TerminatorSet[] terminators = new TerminatorSet[count];
+        boolean[] live = new boolean[count];
+
+        for (int k = 0; k < count; k++) {
+            cursors[k] = new Cursor(this);
+            contexts[k].put("dais.queue", cursors[k]);
+            terminators[k] = terminatorsFor(contexts[k]);
+            live[k] = true;
+        }
+
+        int n = this.interceptors.length;
+        for (int index = 0; index < n; index++) {
+            Function<Map<Object,Object>,Map<Object,Object>> enterFn = this.enters[index];
+            boolean unwinds = this.unwinds[index];
+
+            for (int k = 0; k < count; k++) {
+                if (!live[k]) {
+                    continue;
+                }
+                Map<Object,Object> context = contexts[k];
+                Cursor cursor = cursors[k];
+                if (!cursor.hasTemplateNext() || cursor.next != index) {
+                    // The queue was changed by an Interceptor; finish this one alone
+                    contexts[k] = enter(context, cursor, terminators[k]);
+                    live[k] = false;
+                    continue;
+                }
+                if (Deadline.timedOut(context)) {
+                    contexts[k] = unwind(context, cursor, true);
+                    live[k] = false;
+                    continue;
+                }
+
+                cursor.next++;
+                if (unwinds) {
+                    cursor.pushIndex(index);
+                }
+                try {
+                    if (enterFn != null) {
+                        context = Chain.INSTRUMENTED ?
+                                  instrumented(ChainMetrics.ENTER, index, null, enterFn, context, cursor.size(), cursor.depth) :
+                                  enterFn.apply(context);
+                    }
+                    if (Chain.errorOf(context) != null) {
+                        contexts[k] = unwind(context, cursor, true);
+                        live[k] = false;
+                        continue;
+                    }
+                } catch (Throwable t) {
+                    context.put("error", t);
+                    contexts[k] = unwind(context, cursor, true);
+                    live[k] = false;
+                    continue;
+                }
+
+                contexts[k] = context;
+                if (terminators[k].test(context)) {
+                    if (Chain.INSTRUMENTED) {
+                        terminated(index, null, cursor.size(), cursor.depth);
+                    }
+                    context.remove("dais.queue");
+                    contexts[k] = unwind(context, cursor, false);
+                    live[k] = false;
+                }
+            }
+        }
+
+        // Anything still live has run the whole template; it may still have work pushed onto its queue
+        for (int k = 0; k < count; k++) {
+            if (live[k]) {
+                contexts[k] = enter(contexts[k], cursors[k], terminators[k]);
+            }
+        }
+        return Arrays.asList(contexts);
+    }
+
+    // SlotContexts are set up to evaluate the template's declarative Terminators on write (see Terminator)
+    @SuppressWarnings("unchecked")
+    TerminatorSet terminatorsFor(Map<Object,Object> context) {
+        if (context instanceof SlotContext) {
+            SlotContext slots = (SlotContext) context;
+            if (!this.terminatorSet.isEmpty()) {
+                if (slots.watching != this.terminatorSet) {
+                    slots.watch(this.terminatorSet);
+                }
+                return this.terminatorSet;
+            }
+            if (slots.watching != null && slots.watching.source == slots.terminators) {
+                return slots.watching;
+            }
+        } else if (!this.terminatorSet.isEmpty()) {
+            return this.terminatorSet;
+        }
+        return TerminatorSet.of((List<Predicate<Map<Object,Object>>>) context.get("dais.terminators"));
+    }
+
+    /**
+     * The Enter Phase
+     * Pull from the Cursor until it's empty, or until an error or Terminator switches to unwinding.
+     */
+    Map<Object,Object> enter(Map<Object,Object> context, Cursor cursor, TerminatorSet terminators) {
+        while (true) {
+            Function<Map<Object,Object>,Map<Object,Object>> enterFn;
+            int index = -1;
+            IInterceptor interceptor = null;
+            if (cursor.hasTemplateNext()) {
+                if (Deadline.timedOut(context)) {
+                    return unwind(context, cursor, true);
+                }
+                index = cursor.next++;
+                if (this.unwinds[index]) {
+                    cursor.pushIndex(index);
+                }
+                enterFn = this.enters[index];
+            } else if (!cursor.isEmpty()) {
+                if (Deadline.timedOut(context)) {
+                    return unwind(context, cursor, true);
+                }
+                interceptor = cursor.pollFirst();
+                if (interceptor == null) {
+                    context.remove("dais.queue");
+                    return unwind(context, cursor, false);
+                }
+                cursor.pushDynamic(interceptor);
+                enterFn = interceptor.getEnter();
+            } else {
+                return context;
+            }
+
+            try {
+                if (enterFn != null) {
+                    context = Chain.INSTRUMENTED ?
+                              instrumented(ChainMetrics.ENTER, index, interceptor, enterFn, context, cursor.size(), cursor.depth) :
+                              enterFn.apply(context);
+                }
+                if (Chain.errorOf(context) != null) {
+                    return unwind(context, cursor, true);
+                }
+            } catch (Throwable t) {
+                context.put("error", t);
+                return unwind(context, cursor, true);
+            }
+
+            if (terminators.test(context)) {
+                if (Chain.INSTRUMENTED) {
+                    terminated(index, interceptor, cursor.size(), cursor.depth);
+                }
+                context.remove("dais.queue");
+                return unwind(context, cursor, false);
+            }
+        }
+    }
+
+    private ChainMetrics.InterceptorMetrics metricsFor(int index, IInterceptor dynamic) {
+        return (index >= 0) ? this.metrics[index] : ChainMetrics.of(dynamic);
+    }
+
+    // Only called when Chain.INSTRUMENTED; `index` is the template index, or negative for a `dynamic` Interceptor
+    private Map<Object,Object> instrumented(int stage,
+                                            int index,
+                                            IInterceptor dynamic,
+                                            Function<Map<Object,Object>,Map<Object,Object>> fn,
+                                            Map<Object,Object> context,
+                                            int queueDepth,
+                                            int stackDepth) {
+        ChainMetrics.InterceptorMetrics metrics = ChainMetrics.ENABLED ? metricsFor(index, dynamic) : null;
+        if (ChainEvents.ENABLED) {
+            IInterceptor interceptor = (index >= 0) ? this.interceptors[index] : dynamic;
+            return ChainEvents.apply(interceptor, stage, fn, metrics, context, queueDepth, stackDepth);
+        }
+        return ChainMetrics.apply(metrics, stage, fn, context);
+    }
+    private void terminated(int index, IInterceptor dynamic, int queueDepth, int stackDepth) {
+        if (ChainMetrics.ENABLED) {
+            ChainMetrics.terminated(metricsFor(index, dynamic));
+        }
+        if (ChainEvents.ENABLED) {
+            ChainEvents.terminated((index >= 0) ? this.interceptors[index] : dynamic, queueDepth, stackDepth);
+        }
+    }
+
+    /**
+     * The Leave and Error Phases
+     * Pop the Cursor's stack, calling `error` while there's an "error" in the Context, and `leave` otherwise.
+     */
+    Map<Object,Object> unwind(Map<Object,Object> context, Cursor cursor, boolean erroring) {
+        while (cursor.depth > 0) {
+            int entry = cursor.stack[--cursor.depth];
+            IInterceptor dynamic = null;
+            if (entry < 0) {
+                dynamic = cursor.dynamic[-entry - 1];
+                cursor.dynamic[-entry - 1] = null;
+            }
+
+            if (erroring && Chain.errorOf(context) == null) {
+                erroring = false;
+            }
+
+            Function<Map<Object,Object>,Map<Object,Object>> fn;
+            if (erroring) {
+                fn = (dynamic == null) ? this.errors[entry] : dynamic.getError();
+            } else {
+                fn = (dynamic == null) ? this.leaves[entry] : dynamic.getLeave();
+            }
+            if (fn == null) {
+                continue;
+            }
+
+            try {
+                context = Chain.INSTRUMENTED ?
+                          instrumented(erroring ? ChainMetrics.ERROR : ChainMetrics.LEAVE,
+                                       entry, dynamic, fn, context, -1, cursor.depth) :
+                          fn.apply(context);
+                if (!erroring && Chain.errorOf(context) != null) {
+                    erroring = true;
+                } else if (ChainEvents.ENABLED && erroring && Chain.errorOf(context) == null) {
+                    ChainEvents.errorHandled((dynamic == null) ? this.interceptors[entry] : dynamic, cursor.depth);
+                }
+            } catch (Throwable t) {
+                context.put("error", t);
+                erroring = true;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Dais ChainTemplate Cursor
+     *
+     * The per-execution state of a ChainTemplate: the position in the template, and a stack of entered Interceptors.
+     * As a Deque, the Cursor is the logical "dais.queue" -- the front of the queue (anything pushed with `addFirst`),
+     * followed by the rest of the template, followed by the back of the queue (anything pushed with `addLast`).
+     * The front and back are only allocated if an Interceptor actually pushes work onto the queue.
+     *
+     * Operations that need to address the middle of the queue (iteration, removing a specific element)
+     * first "spill" the rest of the template into the front of the queue; that is correct but slower,
+     * so it's best kept to debugging or rare paths.
+     */
+    public static final class Cursor extends AbstractCollection<IInterceptor> implements Deque<IInterceptor> {
+
+        ChainTemplate template;
+        int next;
+        int end;
+
+        ArrayDeque<IInterceptor> front;
+        ArrayDeque<IInterceptor> back;
+
+        // The stack holds template indices (>= 0), or -(i+1) for the i-th dynamic Interceptor
+        int[] stack;
+        int depth;
+        IInterceptor[] dynamic;
+        int dynamicCount;
+
+        Cursor(ChainTemplate template) {
+            this.stack = new int[Math.max(4, template.interceptors.length)];
+            reset(template);
+        }
+
+        void reset(ChainTemplate template) {
+            this.template = template;
+            this.next = 0;
+            this.end = template.interceptors.length;
+            if (this.front != null) {
+                this.front.clear();
+            }
+            if (this.back != null) {
+                this.back.clear();
+            }
+            if (this.stack.length < this.end) {
+                this.stack = new int[this.end];
+            }
+            this.depth = 0;
+            if (this.dynamic != null) {
+                Arrays.fill(this.dynamic, 0, this.dynamicCount, null);
+            }
+            this.dynamicCount = 0;
+        }
+
+        boolean hasTemplateNext() {
+            return (this.front == null || this.front.isEmpty()) && this.next < this.end;
+        }
+
+        void pushIndex(int index) {
+            if (this.depth == this.stack.length) {
+                this.stack = Arrays.copyOf(this.stack, this.depth * 2);
+            }
+            this.stack[this.depth++] = index;
+        }
+
+        void pushDynamic(IInterceptor interceptor) {
+            if (this.dynamic == null) {
+                this.dynamic = new IInterceptor[4];
+            } else if (this.dynamicCount == this.dynamic.length) {
+                this.dynamic = Arrays.copyOf(this.dynamic, this.dynamicCount * 2);
+            }
+            this.dynamic[this.dynamicCount] = interceptor;
+            pushIndex(-(++this.dynamicCount));
+        }
+
+        /** The number of Interceptors on the stack (waiting to be unwound) */
+        public int depth() {
+            return this.depth;
+        }
+
+        private ArrayDeque<IInterceptor> front() {
+            if (this.front == null) {
+                this.front = new ArrayDeque<IInterceptor>();
+            }
+            return this.front;
+        }
+        private ArrayDeque<IInterceptor> back() {
+            if (this.back == null) {
+                this.back = new ArrayDeque<IInterceptor>();
+            }
+            return this.back;
+        }
+
+        private boolean frontEmpty() {
+            return this.front == null || this.front.isEmpty();
+        }
+        private boolean backEmpty() {
+            return this.back == null || this.back.isEmpty();
+        }
+
+        // Move everything into `front`, so the whole queue can be addressed as a single Deque
+        private ArrayDeque<IInterceptor> spill() {
+            ArrayDeque<IInterceptor> all = front();
+            for (; this.next < this.end; this.next++) {
+                all.addLast(this.template.interceptors[this.next]);
+            }
+            if (!backEmpty()) {
+                all.addAll(this.back);
+                this.back.clear();
+            }
+            return all;
+        }
+
+        /* Collection
+         * -----------------*/
+        public int size() {
+            return (this.end - this.next) +
+                   ((this.front != null) ? this.front.size() : 0) +
+                   ((this.back != null) ? this.back.size() : 0);
+        }
+        public boolean isEmpty() {
+            return this.next >= this.end && frontEmpty() && backEmpty();
+        }
+        public void clear() {
+            this.next = this.end;
+            if (this.front != null) {
+                this.front.clear();
+            }
+            if (this.back != null) {
+                this.back.clear();
+            }
+        }
+        public Iterator<IInterceptor> iterator() {
+            return spill().iterator();
+        }
+        public boolean remove(Object o) {
+            return removeFirstOccurrence(o);
+        }
+
+        /* Deque
+         * -----------------*/
+        public void addFirst(IInterceptor interceptor) {
+            front().addFirst(interceptor);
+        }
+        public void addLast(IInterceptor interceptor) {
+            back().addLast(interceptor);
+        }
+        public boolean offerFirst(IInterceptor interceptor) {
+            addFirst(interceptor);
+            return true;
+        }
+        public boolean offerLast(IInterceptor interceptor) {
+            addLast(interceptor);
+            return true;
+        }
+        public boolean add(IInterceptor interceptor) {
+            addLast(interceptor);
+            return true;
+        }
+        public boolean offer(IInterceptor interceptor) {
+            return offerLast(interceptor);
+        }
+        public void push(IInterceptor interceptor) {
+            addFirst(interceptor);
+        }
+
+        public IInterceptor pollFirst() {
+            if (!frontEmpty()) {
+                return this.front.pollFirst();
+            }
+            if (this.next < this.end) {
+                return this.template.interceptors[this.next++];
+            }
+            return (this.back != null) ? this.back.pollFirst() : null;
+        }
+        public IInterceptor pollLast() {
+            if (!backEmpty()) {
+                return this.back.pollLast();
+            }
+            if (this.next < this.end) {
+                return this.template.interceptors[--this.end];
+            }
+            return (this.front != null) ? this.front.pollLast() : null;
+        }
+        public IInterceptor peekFirst() {
+            if (!frontEmpty()) {
+                return this.front.peekFirst();
+            }
+            if (this.next < this.end) {
+                return this.template.interceptors[this.next];
+            }
+            return (this.back != null) ? this.back.peekFirst() : null;
+        }
+        public IInterceptor peekLast() {
+            if (!backEmpty()) {
+                return this.back.peekLast();
+            }
+            if (this.next < this.end) {
+                return this.template.interceptors[this.end - 1];
+            }
+            return (this.front != null) ? this.front.peekLast() : null;
+        }
+        public IInterceptor poll() {
+            return pollFirst();
+        }
+        public IInterceptor peek() {
+            return peekFirst();
+        }
+
+        public IInterceptor removeFirst() {
+            IInterceptor interceptor = pollFirst();
+            if (interceptor == null) {
+                throw new NoSuchElementException();
+            }
+            return interceptor;
+        }
+        public IInterceptor removeLast() {
+            IInterceptor interceptor = pollLast();
+            if (interceptor == null) {
+                throw new NoSuchElementException();
+            }
+            return interceptor;
+        }
+        public IInterceptor getFirst() {
+            IInterceptor interceptor = peekFirst();
+            if (interceptor == null) {
+                throw new NoSuchElementException();
+            }
+            return interceptor;
+        }
+        public IInterceptor getLast() {
+            IInterceptor interceptor = peekLast();
+            if (interceptor == null) {
+                throw new NoSuchElementException();
+            }
+            return interceptor;
+        }
+        public IInterceptor remove() {
+            return removeFirst();
+        }
+        public IInterceptor pop() {
+            return removeFirst();
+        }
+        public IInterceptor element() {
+            return getFirst();
+        }
+
+        public boolean removeFirstOccurrence(Object o) {
+            return spill().removeFirstOccurrence(o);
+        }
+        public boolean removeLastOccurrence(Object o) {
+            return spill().removeLastOccurrence(o);
+        }
+        public Iterator<IInterceptor> descendingIterator() {
+            return spill().descendingIterator();
+        }
+    }
+}
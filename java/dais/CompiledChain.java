@@ -0,0 +1,63 @@
+
+package dais;
+
+import java.util.Map;
+
+import java.lang.invoke.MethodHandle;
+
+import dais.ChainTemplate;
+
+/**
+ * Dais CompiledChain
+ *
+ * A chain compiled by the ChainCompiler -- executing it gives the same results as executing its template.
+ *
+ * `execute` is the convenient way to run it, but the JIT only inlines a MethodHandle it can treat as a constant.
+ * For the hottest chains, hold the handle in a static final, and invoke it exactly:
+ *
+ *   static final MethodHandle CHAIN = ChainCompiler.compile(interA, interB, interC).handle();
+ *
+ *   Map<Object,Object> result = (Map<Object,Object>) CHAIN.invokeExact(context);
+ *
+ * Then the whole pipeline (every Interceptor's stages included) can be inlined into the caller.
+ */
+public final class CompiledChain {
+
+    public final ChainTemplate template;
+
+    // (context, cursor) -> context
+    private final MethodHandle execute;
+    // context -> context
+    private final MethodHandle handle;
+
+    CompiledChain(ChainTemplate template, MethodHandle execute, MethodHandle handle) {
+        this.template = template;
+        this.execute = execute;
+        this.handle = handle;
+    }
+
+    /**
+     * The compiled chain, as a `(Map)Map` MethodHandle
+     */
+    public MethodHandle handle() {
+        return this.handle;
+    }
+
+    public Map<Object,Object> execute(Map<Object,Object> context) {
+        return execute(context, this.template.cursor());
+    }
+
+    /**
+     * Execute the chain, using (and resetting) the given Cursor of this chain's template.
+     * As with ChainTemplates, Cursors can be reused for sequential executions, but never concurrently.
+     */
+    public Map<Object,Object> execute(Map<Object,Object> context, ChainTemplate.Cursor cursor) {
+        try {
+            return (Map<Object,Object>) this.execute.invokeExact(context, cursor);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Compiled chain failed", t);
+        }
+    }
+}
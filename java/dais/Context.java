@@ -10,7 +10,20 @@ import java.util.function.Predicate;
 
 import dais.ToInterceptor;
 import dais.Interceptor;
+import dais.ChainTemplate;
+import dais.Maps;
 
+/**
+ * Dais Context
+ *
+ * A fluent API over a HashMap Context, for setting up the Terminators and the queue.
+ *
+ * The primitive accessors (`putLong`/`getLong`, `putInt`/`getInt`, `putDouble`/`getDouble`) are here so
+ * code can be written once against either Context, but a HashMap can only hold objects:
+ * on a Context, every `put` boxes the value, and every `get` reads back (and unboxes) a Number.
+ * Only SlotContext stores primitives unboxed -- use it (through `Maps.putLong` etc., or directly)
+ * where boxing shows up in allocation profiles.
+ */
 public class Context extends HashMap<Object,Object> {
 
     public Context() {
@@ -43,5 +56,35 @@ public class Context extends HashMap<Object,Object> {
         this.put("dais.queue", interceptors);
         return this;
     }
+
+    public Context withTemplate(ChainTemplate template) {
+        this.put("dais.queue", template);
+        return this;
+    }
+
+    /* Primitive values
+     * -----------------*/
+    // These box (see above)
+    public Context putLong(Object key, long value) {
+        this.put(key, value);
+        return this;
+    }
+    public Context putInt(Object key, int value) {
+        this.put(key, value);
+        return this;
+    }
+    public Context putDouble(Object key, double value) {
+        this.put(key, value);
+        return this;
+    }
+    public long getLong(Object key, long notFound) {
+        return Maps.getLong(this, key, notFound);
+    }
+    public int getInt(Object key, int notFound) {
+        return Maps.getInt(this, key, notFound);
+    }
+    public double getDouble(Object key, double notFound) {
+        return Maps.getDouble(this, key, notFound);
+    }
 }
 
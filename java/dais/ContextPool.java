@@ -0,0 +1,83 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.ArrayDeque;
+
+import dais.SlotContext;
+import dais.ChainTemplate;
+
+/**
+ * Dais ContextPool
+ *
+ * A thread-local pool of SlotContexts.
+ *
+ * A pooled SlotContext is a bundle: the Context itself (its value array and control fields),
+ * the scratch stack and ChainCursor used by `Chain.execute`, the scratch queue used by `withInterceptors`,
+ * and the ChainTemplate Cursor used by `ChainTemplate.execute`.
+ * All of them are reset (not reallocated) when the Context is released back to the pool,
+ * so a steady-state acquire/execute/release cycle over a ChainTemplate allocates nothing
+ * beyond what the Interceptors themselves allocate.
+ *
+ * Usage:
+ *   SlotContext ctx = pool.acquire();
+ *   try {
+ *       pool.execute(ctx, template);
+ *       ... read the results out of ctx ...
+ *   } finally {
+ *       pool.release(ctx);
+ *   }
+ *
+ * Once released, a Context (and anything that came out of its Chain execution, like the Cursor) must not be used.
+ * Run with `-Ddais.pool.debug=true` to have every access to a released Context throw an IllegalStateException.
+ * Releasing a Context twice always throws.
+ *
+ * Contexts may be released on a different thread than they were acquired on; they join that thread's pool.
+ * A pooled Context reuses one stack and one Cursor, so it can only be in one Chain execution at a time.
+ */
+public final class ContextPool {
+
+    public static final boolean DEBUG = Boolean.getBoolean("dais.pool.debug");
+
+    public static final int DEFAULT_MAX_PER_THREAD = 16;
+
+    private final int maxPerThread;
+    private final ThreadLocal<ArrayDeque<SlotContext>> free;
+
+    public ContextPool(int maxPerThread) {
+        this.maxPerThread = maxPerThread;
+        this.free = ThreadLocal.withInitial(() -> new ArrayDeque<SlotContext>(maxPerThread));
+    }
+    public ContextPool() {
+        this(DEFAULT_MAX_PER_THREAD);
+    }
+
+    public SlotContext acquire() {
+        SlotContext context = this.free.get().pollFirst();
+        if (context == null) {
+            context = new SlotContext();
+            context.reset();
+        }
+        context.released = false;
+        return context;
+    }
+
+    public void release(SlotContext context) {
+        if (context.released) {
+            throw new IllegalStateException("SlotContext was already released to a ContextPool");
+        }
+        context.reset();
+        context.released = true;
+        ArrayDeque<SlotContext> contexts = this.free.get();
+        if (contexts.size() < this.maxPerThread) {
+            contexts.offerFirst(context);
+        }
+    }
+
+    /**
+     * Execute the template against a pooled Context, reusing the Context's Cursor.
+     */
+    public Map<Object,Object> execute(SlotContext context, ChainTemplate template) {
+        return template.execute(context, context.cursor(template));
+    }
+}
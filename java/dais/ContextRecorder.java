@@ -0,0 +1,358 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import dais.IInterceptor;
+import dais.ToInterceptor;
+
+/**
+ * Dais ContextRecorder
+ *
+ * An Interceptor that records every Context it enters into an append-only log of memory-mapped segment files,
+ * so real traffic can be replayed later (see ContextReplay).
+ *
+ * Only the given keys are recorded (or, with no keys, every entry except the "dais." control entries and "error").
+ * Keys and values can be Strings, Integers, Longs, Doubles, Booleans, or byte arrays; other (and null) entries are skipped.
+ *
+ * The hot path doesn't lock, and doesn't copy: a record's size is computed first, the space is reserved
+ * in the current segment with a single atomic add, and the record is encoded straight into the mapped segment.
+ * When a segment is full, the recorder rotates to the next one (the only synchronized step).
+ * Records that are larger than a segment, or that arrive after the recorder is closed, are dropped (and counted).
+ *
+ * Format (big-endian).  Segment files are named `dais-<n>.seg`, and numbered from 0:
+ *   segment: MAGIC (int), VERSION (int), record*, then zeros to the end of the segment
+ *   record:  length (int, of the whole record -- written last, so a zero length ends the segment),
+ *            offset (long, nanoseconds since the recorder started), entry count (int), (key value)*
+ *   value:   tag (byte), followed by
+ *            STRING: length (int), UTF-8 bytes;  INT: int;  LONG: long;  DOUBLE: double;  BYTES: length (int), bytes;
+ *            NULL, TRUE, and FALSE have no body
+ * Segments are meant to be read once the recorder is closed; records are complete, but not necessarily in offset order.
+ */
+public final class ContextRecorder implements IInterceptor, ToInterceptor, AutoCloseable {
+
+    static final int MAGIC = 0x44414953; // "DAIS"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER = 8;
+    static final int RECORD_HEADER = 16;
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte TRUE = 5;
+    static final byte FALSE = 6;
+    static final byte BYTES = 7;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Object[] keys;
+    private final long start = System.nanoTime();
+
+    private volatile Segment current;
+    private int segmentCount;
+    private volatile boolean closed;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final Function<Map<Object,Object>,Map<Object,Object>> enterFn = this::record;
+
+    public ContextRecorder(Path directory, int segmentSize, Object[] keys) {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER || segmentSize > (1 << 30)) {
+            throw new IllegalArgumentException("Segments must be larger than " + (SEGMENT_HEADER + RECORD_HEADER) + " bytes, and at most 1GB");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.keys = keys.clone();
+        try {
+            Files.createDirectories(directory);
+            this.current = newSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    public ContextRecorder(Path directory, Object... keys) {
+        this(directory, DEFAULT_SEGMENT_SIZE, keys);
+    }
+
+    static Path segmentPath(Path directory, int index) {
+        return directory.resolve("dais-" + index + ".seg");
+    }
+
+    static final class Segment {
+        final MappedByteBuffer buffer;
+        final AtomicInteger position = new AtomicInteger(SEGMENT_HEADER);
+        final int capacity;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+
+        // The position reserved for `size` bytes, or -1 if the segment is full
+        int reserve(int size) {
+            int position = this.position.getAndAdd(size);
+            return (position <= this.capacity - size) ? position : -1;
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Path path = segmentPath(this.directory, this.segmentCount++);
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            return new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize));
+        }
+    }
+
+    // The slow path: only the first thread to find the segment full creates the next one
+    private synchronized Segment rotate(Segment full) {
+        if (this.current == full && !this.closed) {
+            full.buffer.force();
+            try {
+                this.current = newSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this.current;
+    }
+
+    /* Recording
+     * -----------------*/
+    private boolean recordable(Object key) {
+        if (key instanceof String) {
+            String k = (String) key;
+            return !(k.startsWith("dais.") || k.equals("error"));
+        }
+        return true;
+    }
+
+    public Map<Object,Object> record(Map<Object,Object> context) {
+        if (this.closed) {
+            this.dropped.increment();
+            return context;
+        }
+        // Size the record first, so it can be encoded directly into the segment
+        int size = RECORD_HEADER;
+        int count = 0;
+        if (this.keys.length != 0) {
+            for (Object key : this.keys) {
+                int entry = entrySize(key, context.get(key));
+                if (entry > 0) {
+                    size += entry;
+                    count++;
+                }
+            }
+        } else {
+            for (Map.Entry<Object,Object> e : context.entrySet()) {
+                int entry = recordable(e.getKey()) ? entrySize(e.getKey(), e.getValue()) : 0;
+                if (entry > 0) {
+                    size += entry;
+                    count++;
+                }
+            }
+        }
+        if (size > this.segmentSize - SEGMENT_HEADER) {
+            this.dropped.increment();
+            return context;
+        }
+
+        Segment segment = this.current;
+        int position = segment.reserve(size);
+        while (position < 0) {
+            segment = rotate(segment);
+            if (this.closed) {
+                this.dropped.increment();
+                return context;
+            }
+            position = segment.reserve(size);
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int p = position + 4;
+        buffer.putLong(p, System.nanoTime() - this.start);
+        buffer.putInt(p + 8, count);
+        p += 12;
+        if (this.keys.length != 0) {
+            for (Object key : this.keys) {
+                Object value = context.get(key);
+                if (entrySize(key, value) > 0) {
+                    p = write(buffer, value, write(buffer, key, p));
+                }
+            }
+        } else {
+            for (Map.Entry<Object,Object> e : context.entrySet()) {
+                if (recordable(e.getKey()) && entrySize(e.getKey(), e.getValue()) > 0) {
+                    p = write(buffer, e.getValue(), write(buffer, e.getKey(), p));
+                }
+            }
+        }
+        // The length commits the record
+        buffer.putInt(position, size);
+        this.recorded.increment();
+        return context;
+    }
+
+    // The encoded size of a key and value, or 0 if the entry can't be recorded (absent/null entries aren't)
+    private static int entrySize(Object key, Object value) {
+        if (key == null || value == null) {
+            return 0;
+        }
+        int k = size(key);
+        int v = size(value);
+        return (k < 0 || v < 0) ? 0 : k + v;
+    }
+
+    // The encoded size of a value, or -1 if it isn't a supported type
+    static int size(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof String) {
+            return 5 + utf8Length((String) value);
+        } else if (value instanceof Integer) {
+            return 5;
+        } else if (value instanceof Long || value instanceof Double) {
+            return 9;
+        } else if (value instanceof byte[]) {
+            return 5 + ((byte[]) value).length;
+        }
+        return -1;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Write the value at `p`, returning the position after it
+    private static int write(MappedByteBuffer buffer, Object value, int p) {
+        if (value == null) {
+            buffer.put(p, NULL);
+            return p + 1;
+        } else if (value instanceof String) {
+            String s = (String) value;
+            buffer.put(p, STRING);
+            int start = p + 5;
+            int q = start;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer.put(q++, (byte) c);
+                } else if (c < 0x800) {
+                    buffer.put(q++, (byte) (0xC0 | (c >> 6)));
+                    buffer.put(q++, (byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer.put(q++, (byte) (0xF0 | (cp >> 18)));
+                    buffer.put(q++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buffer.put(q++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buffer.put(q++, (byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    // (Unpaired surrogates are encoded as-is, the same as Java's "modified" UTF-8)
+                    buffer.put(q++, (byte) (0xE0 | (c >> 12)));
+                    buffer.put(q++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(q++, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+            buffer.putInt(p + 1, q - start);
+            return q;
+        } else if (value instanceof Integer) {
+            buffer.put(p, INT);
+            buffer.putInt(p + 1, (Integer) value);
+            return p + 5;
+        } else if (value instanceof Long) {
+            buffer.put(p, LONG);
+            buffer.putLong(p + 1, (Long) value);
+            return p + 9;
+        } else if (value instanceof Double) {
+            buffer.put(p, DOUBLE);
+            buffer.putDouble(p + 1, (Double) value);
+            return p + 9;
+        } else if (value instanceof Boolean) {
+            buffer.put(p, ((Boolean) value) ? TRUE : FALSE);
+            return p + 1;
+        } else {
+            byte[] bytes = (byte[]) value;
+            buffer.put(p, BYTES);
+            buffer.putInt(p + 1, bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                buffer.put(p + 5 + i, bytes[i]);
+            }
+            return p + 5 + bytes.length;
+        }
+    }
+
+    /* Lifecycle and statistics
+     * -----------------*/
+    public long recordedCount() {
+        return this.recorded.sum();
+    }
+    public long droppedCount() {
+        return this.dropped.sum();
+    }
+    public Path directory() {
+        return this.directory;
+    }
+
+    /**
+     * Stop recording, and flush the current segment.
+     * Records still being written by other threads when the recorder is closed may not be flushed.
+     */
+    public synchronized void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.current.buffer.force();
+        }
+    }
+
+    /* IInterceptor
+     * -----------------*/
+    public Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+        return this.enterFn;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+        return null;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getError() {
+        return null;
+    }
+    public String getName() {
+        return "dais.ContextRecorder";
+    }
+
+    public IInterceptor toInterceptor() {
+        return this;
+    }
+}
@@ -0,0 +1,225 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import dais.Context;
+import dais.ContextRecorder;
+
+/**
+ * Dais ContextReplay
+ *
+ * Streams the Contexts captured by a ContextRecorder back out of its segment files, in recorded order,
+ * so they can be run through any execution mode:
+ *
+ *   ContextReplay replay = new ContextReplay(dir);
+ *   replay.run(ctx -> template.execute(ctx));                  // Drive a chain directly
+ *   Chain.stream(replay.iterator(), template, executor, 64);   // ...or through a ChainStream/ChainExecutor
+ *
+ * Replay is lazy (one record is decoded at a time), and segments are mapped one at a time, read-only.
+ * By default records are replayed at full speed; `withPacing` replays them at the recorded pacing
+ * (or scaled -- 2.0 is twice as fast), by parking until each record's recorded offset has elapsed.
+ * Every record is decoded into a new Context from the supplier (a `Context` by default).
+ *
+ * Segments should be replayed once their recorder is closed (see ContextRecorder for the format).
+ */
+public final class ContextReplay implements Iterable<Map<Object,Object>> {
+
+    private final Path directory;
+    private Supplier<Map<Object,Object>> contexts = Context::new;
+    private double speed = 0.0;
+
+    public ContextReplay(Path directory) {
+        this.directory = directory;
+    }
+
+    /* Configuration
+     * -----------------*/
+    public ContextReplay withContexts(Supplier<Map<Object,Object>> contexts) {
+        this.contexts = contexts;
+        return this;
+    }
+    /**
+     * Replay at the recorded pacing, scaled by `speed` (1.0 is real time); 0 replays at full speed
+     */
+    public ContextReplay withPacing(double speed) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("The replay speed can't be negative");
+        }
+        this.speed = speed;
+        return this;
+    }
+
+    /* Replaying
+     * -----------------*/
+    public Iterator<Map<Object,Object>> iterator() {
+        return new Records();
+    }
+
+    public Stream<Map<Object,Object>> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Run every recorded Context through `execution` (eg: `Chain::execute`, or `template::execute`),
+     * returning the number of Contexts replayed
+     */
+    public long run(Function<Map<Object,Object>,Map<Object,Object>> execution) {
+        long count = 0;
+        for (Iterator<Map<Object,Object>> records = iterator(); records.hasNext(); count++) {
+            execution.apply(records.next());
+        }
+        return count;
+    }
+
+    final class Records implements Iterator<Map<Object,Object>> {
+        private int segmentIndex = 0;
+        private MappedByteBuffer buffer;
+        private int position;
+        private Map<Object,Object> nextRecord;
+        private long nextOffset;
+
+        private long firstOffset = -1;
+        private long started;
+
+        Records() {
+            advance();
+        }
+
+        private boolean openSegment() {
+            Path path = ContextRecorder.segmentPath(directory, this.segmentIndex++);
+            if (!Files.exists(path)) {
+                this.buffer = null;
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (this.buffer.capacity() < ContextRecorder.SEGMENT_HEADER ||
+                this.buffer.getInt(0) != ContextRecorder.MAGIC ||
+                this.buffer.getInt(4) != ContextRecorder.VERSION) {
+                throw new IllegalStateException("Not a Dais recording segment: " + path);
+            }
+            this.position = ContextRecorder.SEGMENT_HEADER;
+            return true;
+        }
+
+        // Decode the next record (from this segment or a later one), or leave nextRecord null at the end
+        private void advance() {
+            this.nextRecord = null;
+            while (this.buffer != null || openSegment()) {
+                int length = (this.position <= this.buffer.capacity() - ContextRecorder.RECORD_HEADER) ? this.buffer.getInt(this.position) : 0;
+                if (length < ContextRecorder.RECORD_HEADER) {
+                    this.buffer = null;
+                    continue;
+                }
+                this.nextOffset = this.buffer.getLong(this.position + 4);
+                int count = this.buffer.getInt(this.position + 12);
+                Map<Object,Object> context = contexts.get();
+                int p = this.position + ContextRecorder.RECORD_HEADER;
+                for (int i = 0; i < count; i++) {
+                    Object key = read(p);
+                    p = this.end;
+                    context.put(key, read(p));
+                    p = this.end;
+                }
+                this.position += length;
+                this.nextRecord = context;
+                return;
+            }
+        }
+
+        // The end of the last value read
+        private int end;
+
+        private Object read(int p) {
+            MappedByteBuffer buffer = this.buffer;
+            switch (buffer.get(p)) {
+                case ContextRecorder.NULL:
+                    this.end = p + 1;
+                    return null;
+                case ContextRecorder.STRING: {
+                    byte[] bytes = bytes(p);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                case ContextRecorder.INT:
+                    this.end = p + 5;
+                    return buffer.getInt(p + 1);
+                case ContextRecorder.LONG:
+                    this.end = p + 9;
+                    return buffer.getLong(p + 1);
+                case ContextRecorder.DOUBLE:
+                    this.end = p + 9;
+                    return buffer.getDouble(p + 1);
+                case ContextRecorder.TRUE:
+                    this.end = p + 1;
+                    return Boolean.TRUE;
+                case ContextRecorder.FALSE:
+                    this.end = p + 1;
+                    return Boolean.FALSE;
+                case ContextRecorder.BYTES:
+                    return bytes(p);
+                default:
+                    throw new IllegalStateException("Corrupt recording: unknown value tag " + buffer.get(p) + " at " + p);
+            }
+        }
+
+        private byte[] bytes(int p) {
+            int length = this.buffer.getInt(p + 1);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = this.buffer.get(p + 5 + i);
+            }
+            this.end = p + 5 + length;
+            return bytes;
+        }
+
+        public boolean hasNext() {
+            return this.nextRecord != null;
+        }
+
+        public Map<Object,Object> next() {
+            Map<Object,Object> record = this.nextRecord;
+            if (record == null) {
+                throw new NoSuchElementException();
+            }
+            if (speed > 0) {
+                pace(this.nextOffset);
+            }
+            advance();
+            return record;
+        }
+
+        private void pace(long offset) {
+            if (this.firstOffset < 0) {
+                this.firstOffset = offset;
+                this.started = System.nanoTime();
+                return;
+            }
+            long due = this.started + (long) ((offset - this.firstOffset) / speed);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+}
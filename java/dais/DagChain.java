@@ -0,0 +1,337 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+import dais.IInterceptor;
+import dais.DeclaredInterceptor;
+import dais.ChainMetrics;
+import dais.Deadline;
+import dais.Chain;
+
+/**
+ * Dais DagChain
+ *
+ * A chain whose Interceptors are scheduled by their dependencies, instead of strictly in sequence,
+ * so independent enters (eg: several lookups that each write their own keys) run in parallel.
+ *
+ * The dependency graph is built once, when the DagChain is created.  An Interceptor depends on every
+ * Interceptor declared before it that:
+ *  - it conflicts with (one writes a key the other reads or writes, see DeclaredInterceptor), or
+ *  - it names in its `dependsOn` declaration.
+ * An Interceptor that isn't a DeclaredInterceptor is a barrier: it depends on everything before it,
+ * and everything after it depends on it.  Every dependency points backwards, so the graph is always acyclic.
+ *
+ * Interceptors are grouped into levels (an Interceptor's level is one more than the deepest of its dependencies),
+ * and the enters of each level run together:
+ *  - A level of one Interceptor runs on the calling thread, directly against the Context (just like a Chain).
+ *  - The enters of a wider level run in parallel on a ForkJoinPool (the common pool, unless one is given).
+ *    Each gets its own overlay of the Context: reads see the Context as of the start of the level,
+ *    and writes (and removes) stay in the overlay.  Once every enter of the level has finished, the overlays are
+ *    merged into the Context in declaration order.  An enter that returns a different Map has that Map merged too.
+ * A chain of fan-out lookups takes about as long as its slowest lookup, rather than the sum of them.
+ *
+ * Between levels, the Chain's rules apply (see Chain):
+ *  - The Deadline is checked before every level.
+ *  - If an enter put an "error" (or threw), the Error Phase starts -- the error is the first one in declaration order.
+ *  - If a Terminator fires (the DagChain's Terminators, or else the Context's "dais.terminators"), the Leave Phase starts.
+ * The Leave and Error Phases run sequentially, over every Interceptor that entered, in reverse declaration order
+ * (a reverse topological order).  An error function that throws replaces the "error", and unwinding continues.
+ * If every level runs without terminating, the Context is returned (there's no Leave Phase, as with an exhausted queue).
+ *
+ * There's no "dais.queue" -- Interceptors can't add to or clear the queue; end a request with a Terminator (or an error).
+ * Enters that block (eg: on I/O) should be given a dedicated pool, so they don't starve the common pool.
+ */
+public final class DagChain {
+
+    private static final Object MISSING = new Object();
+    private static final Object REMOVED = new Object();
+
+    // A parallel enter's view of the Context: reads fall through to the shared Context, writes stay here until the merge
+    static final class Overlay extends AbstractMap<Object,Object> {
+        final Map<Object,Object> base;
+        final HashMap<Object,Object> writes = new HashMap<>();
+
+        Overlay(Map<Object,Object> base) {
+            this.base = base;
+        }
+
+        public Object get(Object key) {
+            Object value = this.writes.getOrDefault(key, MISSING);
+            return (value == MISSING) ? this.base.get(key) :
+                   (value == REMOVED) ? null :
+                   value;
+        }
+        public boolean containsKey(Object key) {
+            Object value = this.writes.getOrDefault(key, MISSING);
+            return (value == MISSING) ? this.base.containsKey(key) : value != REMOVED;
+        }
+        public Object put(Object key, Object value) {
+            Object old = get(key);
+            this.writes.put(key, value);
+            return old;
+        }
+        public Object remove(Object key) {
+            Object old = get(key);
+            this.writes.put(key, REMOVED);
+            return old;
+        }
+        public void clear() {
+            for (Object key : this.base.keySet()) {
+                this.writes.put(key, REMOVED);
+            }
+            this.writes.replaceAll((k, v) -> REMOVED);
+        }
+        // A snapshot of the merged view
+        public Set<Map.Entry<Object,Object>> entrySet() {
+            Map<Object,Object> merged = new HashMap<>(this.base);
+            merge(merged);
+            return Collections.unmodifiableMap(merged).entrySet();
+        }
+
+        void merge(Map<Object,Object> context) {
+            for (Map.Entry<Object,Object> e : this.writes.entrySet()) {
+                if (e.getValue() == REMOVED) {
+                    context.remove(e.getKey());
+                } else {
+                    context.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    static final class Enter extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final IInterceptor interceptor;
+        final Overlay overlay;
+        Throwable thrown;
+
+        Enter(IInterceptor interceptor, Overlay overlay) {
+            this.interceptor = interceptor;
+            this.overlay = overlay;
+        }
+
+        protected void compute() {
+            try {
+                Map<Object,Object> result = enter(this.interceptor, this.overlay);
+                if (result != this.overlay && result != null) {
+                    for (Map.Entry<Object,Object> e : result.entrySet()) {
+                        this.overlay.put(e.getKey(), e.getValue());
+                    }
+                }
+            } catch (Throwable t) {
+                this.thrown = t;
+            }
+        }
+    }
+
+    private final List<Predicate<Map<Object,Object>>> terminators;
+    // The Interceptors of each level, in declaration order
+    private final IInterceptor[][] levels;
+    // Everything that has entered once a level has run, in reverse declaration order
+    private final IInterceptor[][] unwinds;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public DagChain(List<Predicate<Map<Object,Object>>> terminators, IInterceptor... interceptors) {
+        int n = interceptors.length;
+        int[] level = new int[n];
+        int depth = 0;
+        for (int i = 0; i < n; i++) {
+            IInterceptor interceptor = interceptors[i];
+            if (interceptor == null) {
+                throw new IllegalArgumentException("A DagChain can't contain null Interceptors");
+            }
+            if (interceptor instanceof DeclaredInterceptor) {
+                for (String name : ((DeclaredInterceptor) interceptor).dependsOn()) {
+                    boolean found = false;
+                    for (int j = 0; j < i && !found; j++) {
+                        found = name.equals(interceptors[j].getName());
+                    }
+                    if (!found) {
+                        throw new IllegalArgumentException("`" + interceptor.getName() + "` depends on `" + name +
+                                                           "`, which isn't declared before it");
+                    }
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                if (dependsOn(interceptor, interceptors[j])) {
+                    level[i] = Math.max(level[i], level[j] + 1);
+                }
+            }
+            depth = Math.max(depth, level[i] + 1);
+        }
+
+        this.terminators = (terminators == null || terminators.isEmpty()) ? null : terminators;
+        this.levels = new IInterceptor[depth][];
+        this.unwinds = new IInterceptor[depth][];
+        for (int l = 0; l < depth; l++) {
+            List<IInterceptor> members = new ArrayList<>();
+            List<IInterceptor> entered = new ArrayList<>();
+            for (int i = n - 1; i >= 0; i--) {
+                if (level[i] == l) {
+                    members.add(0, interceptors[i]);
+                }
+                if (level[i] <= l) {
+                    entered.add(interceptors[i]);
+                }
+            }
+            this.levels[l] = members.toArray(new IInterceptor[0]);
+            this.unwinds[l] = entered.toArray(new IInterceptor[0]);
+        }
+    }
+    public DagChain(IInterceptor... interceptors) {
+        this(null, interceptors);
+    }
+
+    private static boolean dependsOn(IInterceptor later, IInterceptor earlier) {
+        if (!(later instanceof DeclaredInterceptor) || !(earlier instanceof DeclaredInterceptor)) {
+            return true;
+        }
+        DeclaredInterceptor d = (DeclaredInterceptor) later;
+        return d.conflictsWith((DeclaredInterceptor) earlier) || d.dependsOn().contains(earlier.getName());
+    }
+
+    /* Configuration
+     * -----------------*/
+    public DagChain withPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /* Execution
+     * -----------------*/
+    public Map<Object,Object> execute(Map<Object,Object> context) {
+        @SuppressWarnings("unchecked")
+        List<Predicate<Map<Object,Object>>> terminators = (this.terminators != null) ? this.terminators :
+                                                          (List<Predicate<Map<Object,Object>>>) context.get("dais.terminators");
+        for (int l = 0; l < this.levels.length; l++) {
+            if (Deadline.timedOut(context)) {
+                return unwind(context, l - 1);
+            }
+            IInterceptor[] level = this.levels[l];
+            if (level.length == 1) {
+                try {
+                    context = enter(level[0], context);
+                } catch (Throwable t) {
+                    context.put("error", t);
+                }
+            } else {
+                enterAll(context, level);
+            }
+            if (Chain.errorOf(context) != null) {
+                return unwind(context, l);
+            }
+            if (terminators != null && Chain.terminates(context, terminators)) {
+                return unwind(context, l);
+            }
+        }
+        return context;
+    }
+
+    static Map<Object,Object> enter(IInterceptor interceptor, Map<Object,Object> context) {
+        return Chain.INSTRUMENTED ?
+               Chain.instrumented(ChainMetrics.ENTER, interceptor, context, -1, -1) :
+               IInterceptor.enter(interceptor, context);
+    }
+
+    // Run a level's enters in parallel, and merge their overlays in declaration order
+    private void enterAll(Map<Object,Object> context, IInterceptor[] level) {
+        Enter[] enters = new Enter[level.length];
+        for (int i = 0; i < level.length; i++) {
+            enters[i] = new Enter(level[i], new Overlay(context));
+        }
+        boolean inPool = ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == this.pool;
+        for (int i = 1; i < enters.length; i++) {
+            if (inPool) {
+                enters[i].fork();
+            } else {
+                this.pool.execute(enters[i]);
+            }
+        }
+        enters[0].invoke();
+        // Every enter reads the shared Context, so nothing is merged until they've all finished
+        for (int i = 1; i < enters.length; i++) {
+            enters[i].join();
+        }
+
+        Object error = null;
+        for (int i = 0; i < enters.length; i++) {
+            Enter enter = enters[i];
+            enter.overlay.merge(context);
+            if (error == null) {
+                error = (enter.thrown != null) ? enter.thrown : enter.overlay.writes.get("error");
+                error = (error == REMOVED) ? null : error;
+            }
+        }
+        if (error != null) {
+            context.put("error", error);
+        }
+    }
+
+    // The Leave/Error Phase, over everything that entered by the end of `level`
+    private Map<Object,Object> unwind(Map<Object,Object> context, int level) {
+        if (level < 0) {
+            return context;
+        }
+        boolean erroring = Chain.errorOf(context) != null;
+        for (IInterceptor interceptor : this.unwinds[level]) {
+            if (erroring && Chain.errorOf(context) == null) {
+                erroring = false;
+            }
+            try {
+                if (erroring) {
+                    context = Chain.INSTRUMENTED ?
+                              Chain.instrumented(ChainMetrics.ERROR, interceptor, context, -1, -1) :
+                              IInterceptor.error(interceptor, context);
+                } else {
+                    context = Chain.INSTRUMENTED ?
+                              Chain.instrumented(ChainMetrics.LEAVE, interceptor, context, -1, -1) :
+                              IInterceptor.leave(interceptor, context);
+                    erroring = Chain.errorOf(context) != null;
+                }
+            } catch (Throwable t) {
+                // A throwing leave or error function replaces the error, and unwinding continues
+                context.put("error", t);
+                erroring = true;
+            }
+        }
+        return context;
+    }
+
+    /* Debugging
+     * -----------------*/
+    /**
+     * The levels of the schedule -- the Interceptors of a level run in parallel
+     */
+    public List<List<IInterceptor>> levels() {
+        List<List<IInterceptor>> levels = new ArrayList<>(this.levels.length);
+        for (IInterceptor[] level : this.levels) {
+            levels.add(Collections.unmodifiableList(Arrays.asList(level)));
+        }
+        return Collections.unmodifiableList(levels);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DagChain[");
+        for (int l = 0; l < this.levels.length; l++) {
+            sb.append((l == 0) ? "" : " -> ").append('{');
+            for (int i = 0; i < this.levels[l].length; i++) {
+                sb.append((i == 0) ? "" : ", ").append(this.levels[l][i].getName());
+            }
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,124 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dais.ChainError;
+import dais.SlotContext;
+
+/**
+ * Dais Deadline
+ *
+ * A point in time (on the `System.nanoTime` clock) after which a chain execution isn't worth finishing.
+ *
+ * A Context's deadline is its "dais.deadline" entry.  It can be set before the chain starts, or by an Interceptor
+ * (eg: from a request's timeout header), and it can only be tightened -- setting a budget on a Context that
+ * already has an earlier deadline (say, inherited from the caller's Context) keeps the earlier one:
+ *
+ *   Deadline.set(ctx, 250, TimeUnit.MILLISECONDS);   // a 250ms budget, unless the Context already has less
+ *   Deadline.inherit(subCtx, ctx);                   // a sub-chain gets (at most) what's left of the parent's budget
+ *
+ * Before every Interceptor's enter, the Chain checks the deadline.  Once it has passed, the remaining enters are skipped,
+ * the `Deadline.TIMEOUT` ChainError is raised, and the Error Phase unwinds the Interceptors that already entered
+ * (whose error functions can handle the timeout, eg: with a 503 response).
+ * Leave and error functions always run -- they're the cleanup.
+ * Contexts without a deadline only pay for one lookup per Interceptor (a field read, for SlotContexts),
+ * and the clock is only read when there is a deadline.
+ *
+ * Cancellation is cooperative: a running Interceptor isn't interrupted.  Long-running Interceptors should
+ * pass their remaining budget on (eg: as an I/O timeout) with `Deadline.remaining(ctx, unit)`.
+ */
+public final class Deadline {
+
+    public static final String KEY = "dais.deadline";
+    public static final ChainError TIMEOUT = ChainError.define("dais/timeout", "Deadline exceeded");
+
+    // The System.nanoTime at which the deadline passes
+    public final long nanoTime;
+
+    private Deadline(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    public static Deadline at(long nanoTime) {
+        return new Deadline(nanoTime);
+    }
+
+    public static Deadline after(long duration, TimeUnit unit) {
+        long now = System.nanoTime();
+        long nanos = unit.toNanos(duration);
+        // Saturate, rather than overflow into the past
+        return new Deadline((nanos > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + nanos);
+    }
+
+    public long remainingNanos() {
+        return this.nanoTime - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    // The earlier of the two deadlines
+    public Deadline min(Deadline other) {
+        return (other == null || this.nanoTime - other.nanoTime <= 0) ? this : other;
+    }
+
+    public String toString() {
+        return "Deadline[" + TimeUnit.NANOSECONDS.toMillis(remainingNanos()) + "ms remaining]";
+    }
+
+    /* Context API
+     * -----------------*/
+    public static Deadline of(Map<Object,Object> context) {
+        Object deadline = (context instanceof SlotContext) ? ((SlotContext) context).deadline : context.get(KEY);
+        return (deadline instanceof Deadline) ? (Deadline) deadline : null;
+    }
+
+    /**
+     * Set the Context's deadline, unless it already has an earlier one
+     */
+    public static Map<Object,Object> set(Map<Object,Object> context, Deadline deadline) {
+        Deadline current = of(context);
+        if (current == null || deadline.min(current) != current) {
+            context.put(KEY, deadline);
+        }
+        return context;
+    }
+    public static Map<Object,Object> set(Map<Object,Object> context, long budget, TimeUnit unit) {
+        return set(context, after(budget, unit));
+    }
+
+    /**
+     * Give the Context (at most) the parent Context's remaining budget
+     */
+    public static Map<Object,Object> inherit(Map<Object,Object> context, Map<Object,Object> parent) {
+        Deadline deadline = of(parent);
+        return (deadline != null) ? set(context, deadline) : context;
+    }
+
+    /**
+     * The Context's remaining budget (negative once it has passed), or Long.MAX_VALUE if it doesn't have a deadline
+     */
+    public static long remaining(Map<Object,Object> context, TimeUnit unit) {
+        Deadline deadline = of(context);
+        return (deadline != null) ? unit.convert(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : Long.MAX_VALUE;
+    }
+
+    public static boolean expired(Map<Object,Object> context) {
+        Deadline deadline = of(context);
+        return deadline != null && deadline.isExpired();
+    }
+
+    /**
+     * Used by the Chain before every enter: if the Context's deadline has passed, raise TIMEOUT and return true
+     */
+    static boolean timedOut(Map<Object,Object> context) {
+        if (expired(context)) {
+            ChainError.raise(context, TIMEOUT);
+            return true;
+        }
+        return false;
+    }
+}
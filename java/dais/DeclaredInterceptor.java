@@ -0,0 +1,124 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.function.Function;
+
+import dais.IInterceptor;
+import dais.ToInterceptor;
+
+/**
+ * Dais DeclaredInterceptor
+ *
+ * An IInterceptor, along with a declaration of the Context keys its stages read and write,
+ * and whether it's commutative.  The declaration lets an AdaptiveChain decide which Interceptors
+ * can be reordered without changing the outcome of a chain.
+ *
+ * The declaration covers every stage (enter, leave, and error):
+ *  - `reads` are the keys whose values the Interceptor depends on,
+ *  - `writes` are the keys it puts or removes.  An Interceptor that can end the request by clearing the queue
+ *    writes "dais.queue"; one that ends it by tripping a Terminator writes that Terminator's key.
+ *  - `commutative` Interceptors can run before or after any other commutative Interceptor they don't conflict with.
+ *    They must also be safe to skip entirely (enter and leave) when the request is ended before they run --
+ *    their writes are only for the Interceptors after them.
+ *
+ * An Interceptor can also declare the (names of the) Interceptors it depends on, for ordering that isn't about keys
+ * (eg: side effects outside of the Context); a DagChain runs it after them.
+ *
+ * Two declarations conflict when either one writes a key the other reads or writes.
+ * A DeclaredInterceptor delegates everything else (including its name, for instrumentation) to the wrapped Interceptor.
+ */
+public final class DeclaredInterceptor implements IInterceptor, ToInterceptor {
+
+    public final IInterceptor interceptor;
+    private Set<Object> reads = Collections.emptySet();
+    private Set<Object> writes = Collections.emptySet();
+    private Set<String> dependsOn = Collections.emptySet();
+    private boolean commutative = false;
+
+    public DeclaredInterceptor(IInterceptor interceptor) {
+        if (interceptor == null) {
+            throw new IllegalArgumentException("A DeclaredInterceptor needs an Interceptor to declare");
+        }
+        this.interceptor = interceptor;
+    }
+
+    /* Declaration
+     * -----------------*/
+    public DeclaredInterceptor withReads(Object... keys) {
+        this.reads = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(keys)));
+        return this;
+    }
+    public DeclaredInterceptor withWrites(Object... keys) {
+        this.writes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(keys)));
+        return this;
+    }
+    public DeclaredInterceptor withDependsOn(String... interceptorNames) {
+        this.dependsOn = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(interceptorNames)));
+        return this;
+    }
+    public DeclaredInterceptor withCommutative(boolean commutative) {
+        this.commutative = commutative;
+        return this;
+    }
+
+    public Set<Object> reads() {
+        return this.reads;
+    }
+    public Set<Object> writes() {
+        return this.writes;
+    }
+    public Set<String> dependsOn() {
+        return this.dependsOn;
+    }
+    public boolean isCommutative() {
+        return this.commutative;
+    }
+
+    public boolean conflictsWith(DeclaredInterceptor other) {
+        return intersects(this.writes, other.reads) ||
+               intersects(this.writes, other.writes) ||
+               intersects(other.writes, this.reads);
+    }
+
+    static boolean intersects(Set<Object> a, Set<Object> b) {
+        for (Object key : a) {
+            if (b.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String toString() {
+        return "DeclaredInterceptor[" + getName() + " reads=" + this.reads + " writes=" + this.writes +
+               (this.dependsOn.isEmpty() ? "" : " dependsOn=" + this.dependsOn) +
+               (this.commutative ? " commutative]" : "]");
+    }
+
+    /* IInterceptor
+     * -----------------*/
+    public Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+        return this.interceptor.getEnter();
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+        return this.interceptor.getLeave();
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getError() {
+        return this.interceptor.getError();
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getStage(int stageId) {
+        return this.interceptor.getStage(stageId);
+    }
+    public String getName() {
+        return this.interceptor.getName();
+    }
+
+    public IInterceptor toInterceptor() {
+        return this;
+    }
+}
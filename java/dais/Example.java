@@ -3,17 +3,52 @@ package dais;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Iterator;
 import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import java.util.Random;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import dais.Maps;
+import dais.IInterceptor;
 import dais.Interceptor;
 import dais.Context; // Fluent API for the HashMap
 import dais.Chain;
+import dais.ChainTemplate;
+import dais.SlotContext;
+import dais.Terminator;
+import dais.ChainError;
+import dais.Router;
+import dais.Stages;
+import dais.Deadline;
+import dais.CachingInterceptor;
+import dais.ChainRegistry;
+import dais.ContextRecorder;
+import dais.ContextReplay;
+import dais.DeclaredInterceptor;
+import dais.AdaptiveChain;
+import dais.DagChain;
+import dais.ChainCursor;
+import dais.ContextPool;
+import dais.AsyncInterceptor;
+import dais.AsyncChain;
+import dais.HttpServer;
 
 public class Example {
 
@@ -230,5 +265,271 @@ public class Example {
 
         return Chain.execute(context);
     }
-}
 
+    // Templates are immutable and thread-safe -- build them once, and share them
+    // Declarative Terminators work like any Predicate, but SlotContexts evaluate them on write
+    public static final ChainTemplate templateABC = ChainTemplate.of(Arrays.asList(Terminator.keyPresent("b")),
+                                                                     interA, interB, interC);
+
+    public static Map<Object,Object> exampleTemplate() {
+        return Chain.execute(new Context(), templateABC);
+    }
+
+    public static Map<Object,Object> exampleSlotContext() {
+        // SlotContexts keep values in an array, indexed by interned keys
+        return Chain.execute(new SlotContext(), templateABC);
+    }
+
+    public static final AsyncInterceptor asyncB = new AsyncInterceptor(ctx -> CompletableFuture.supplyAsync(() -> Maps.put(ctx, "b", 2)),
+                                                                       null, null);
+
+    public static CompletionStage<Map<Object,Object>> exampleAsync() {
+        // interA and interC run inline; the chain only hops threads while waiting on asyncB
+        Map<Object,Object> context = new Context().withTerminators(Arrays.asList(ctx -> ctx.containsKey("b")))
+                                                  .withInterceptors(interA, asyncB, interC);
+
+        return AsyncChain.execute(context);
+    }
+
+    public static final ContextPool pool = new ContextPool();
+
+    public static Map<Object,Object> examplePooled() {
+        // Pooled Contexts are recycled on release, so read out what you need before releasing
+        SlotContext context = pool.acquire();
+        try {
+            return new HashMap<>(pool.execute(context, templateABC));
+        } finally {
+            pool.release(context);
+        }
+    }
+
+    // Expected errors are defined once, and raised without constructing (or throwing) an exception
+    public static final ChainError NOT_FOUND = ChainError.define("not-found", "Resource not found");
+
+    public static Map<Object,Object> exampleChainError() {
+        Map<Object,Object> context = new Context().withInterceptors(new Interceptor(null,
+                                                                                    null,
+                                                                                    ctx -> {
+                                                                                        if (ChainError.is(ctx, NOT_FOUND)) {
+                                                                                            ctx.remove("error");
+                                                                                            ctx.put("status", 404);
+                                                                                        }
+                                                                                        return ctx;
+                                                                                    }),
+                                                                    interA,
+                                                                    new Interceptor(ctx -> ChainError.raise(ctx, NOT_FOUND, "b"), null, null),
+                                                                    interC);
+
+        return Chain.execute(context);
+    }
+
+    // Routes are compiled into a trie once; routing splices the matched sub-chain onto the queue
+    public static final Router router = new Router("method", "path").withRoute("GET/users/:id", interA, interB)
+                                                                   .withRoute("GET/static/**", interC)
+                                                                   .withNotFound(new Interceptor(ctx -> Maps.put(ctx, "status", 404),
+                                                                                                 null, null));
+
+    public static Map<Object,Object> exampleRouter() {
+        Map<Object,Object> context = new Context().withInterceptors(router, interC);
+        context.put("method", "GET");
+        context.put("path", "/users/42");
+
+        return Chain.execute(context);
+    }
+
+    // Stage names are registered once; executing a plan dispatches by stage id
+    public static final int VALIDATE = Stages.register("validate", false);
+    public static final int[] validatedPlan = Stages.plan("validate", "enter", "leave");
+    public static final Interceptor validated = new Interceptor("validated",
+                                                                new HashMap<String,Function<Map<Object,Object>,Map<Object,Object>>>() {{
+                                                                    put("validate", ctx -> Maps.put(ctx, "valid", ctx.containsKey("a")));
+                                                                    put("enter", ctx -> Maps.put(ctx, "b", 2));
+                                                                }});
+
+    public static Map<Object,Object> exampleStages() {
+        return Chain.executeStages(new Context(),
+                                   new IInterceptor[] {interA, validated, interC},
+                                   validatedPlan);
+    }
+
+    // Deadlines are checked before every enter; once one passes, the chain unwinds with Deadline.TIMEOUT
+    public static Map<Object,Object> exampleDeadline() {
+        Map<Object,Object> context = new Context().withInterceptors(new Interceptor(null,
+                                                                                    null,
+                                                                                    ctx -> {
+                                                                                        if (ChainError.is(ctx, Deadline.TIMEOUT)) {
+                                                                                            ctx.remove("error");
+                                                                                            ctx.put("status", 503);
+                                                                                        }
+                                                                                        return ctx;
+                                                                                    }),
+                                                                    interA,
+                                                                    new Interceptor(ctx -> Deadline.set(ctx, 0, TimeUnit.MILLISECONDS), null, null),
+                                                                    interB,
+                                                                    interC);
+
+        return Chain.execute(context);
+    }
+
+    // Cached results short-circuit the chain; a Terminator on the output makes misses unwind (and store) too
+    public static final CachingInterceptor userCache = new CachingInterceptor("users", new Object[] {"id"}, new Object[] {"user"})
+                                                           .withMaximumSize(1000)
+                                                           .withTtl(1, TimeUnit.MINUTES);
+    public static final ChainTemplate cachedUsers = ChainTemplate.of(Arrays.asList(Terminator.keyPresent("user")),
+                                                                     userCache,
+                                                                     new Interceptor(ctx -> Maps.put(ctx, "user", "user-" + ctx.get("id")),
+                                                                                     null, null));
+
+    public static Map<Object,Object> exampleCaching() {
+        Map<Object,Object> context = new Context();
+        context.put("id", 42);
+
+        return cachedUsers.execute(context);
+    }
+
+    // Chains are looked up by name on every request, and can be swapped without stopping traffic
+    public static final ChainRegistry registry = new ChainRegistry();
+    static {
+        registry.register("abc", templateABC);
+    }
+
+    public static Map<Object,Object> exampleRegistry() {
+        ChainRegistry.Definition abc = registry.get("abc");
+        // A new version (in-flight executions of the old one are unaffected)
+        registry.replace("abc", abc.version, new ChainTemplate(interA, interC));
+
+        return registry.execute("abc", new Context());
+    }
+
+    // Records are pulled and executed lazily, reusing one Cursor for the whole stream
+    public static List<Map<Object,Object>> exampleStream() {
+        Iterator<Map<Object,Object>> records = Arrays.<Map<Object,Object>>asList(new Context(), new Context(), new Context()).iterator();
+
+        return Chain.stream(records, templateABC).collect(Collectors.toList());
+    }
+
+    // SlotContexts hold primitives unboxed; other Maps (and the Map view) see them as boxed Numbers
+    public static Map<Object,Object> examplePrimitives() {
+        SlotContext context = new SlotContext().withInterceptors(new Interceptor(ctx -> Maps.putInt(ctx, "a", 1000),
+                                                                                 ctx -> Maps.putInt(ctx, "leave-a", Maps.getInt(ctx, "a", 0) + 10),
+                                                                                 null),
+                                                                 new Interceptor(ctx -> Maps.putDouble(ctx, "b", Maps.getInt(ctx, "a", 0) * 1.5),
+                                                                                 null, null));
+        context.withTerminators(Arrays.asList(Terminator.keyPresent("b")));
+
+        return Chain.execute(context);
+    }
+
+    // Record the inputs of live traffic, then replay them through a chain (here, at full speed)
+    public static List<Map<Object,Object>> exampleRecording() throws IOException {
+        Path dir = Files.createTempDirectory("dais-recording");
+        try (ContextRecorder recorder = new ContextRecorder(dir, 1024 * 1024, new Object[]{"user-id", "path"})) {
+            ChainTemplate recorded = new ChainTemplate(recorder, interA, interB, interC);
+            for (int i = 0; i < 3; i++) {
+                Map<Object,Object> context = new Context();
+                context.put("user-id", (long) i);
+                context.put("path", "/users/" + i);
+                recorded.execute(context);
+            }
+        }
+
+        return new ContextReplay(dir).stream().map(templateABC::execute).collect(Collectors.toList());
+    }
+
+    // A profile lookup that costs far more than the token check
+    private static Map<Object,Object> lookupProfile(Map<Object,Object> ctx) {
+        long h = ctx.get("user-id").hashCode();
+        for (int i = 0; i < 10000; i++) {
+            h = h * 31 + i;
+        }
+        return Maps.put(ctx, "profile", h);
+    }
+    public static final AdaptiveChain adaptive = new AdaptiveChain(Arrays.asList(Terminator.keyPresent("response")),
+                                                                   new DeclaredInterceptor(new Interceptor("example.profile", Example::lookupProfile, null, null))
+                                                                       .withReads("user-id").withWrites("profile").withCommutative(true),
+                                                                   new DeclaredInterceptor(new Interceptor("example.auth",
+                                                                                                           ctx -> (ctx.get("token") == null) ? Maps.put(ctx, "response", 401) : ctx,
+                                                                                                           null, null))
+                                                                       .withReads("token").withWrites("response").withCommutative(true),
+                                                                   new Interceptor("example.handler", ctx -> Maps.put(ctx, "response", 200), null, null));
+
+    // Once profiled, the cheap auth check (which rejects half of the requests) runs before the expensive profile lookup
+    public static List<IInterceptor> exampleAdaptive() {
+        for (int i = 0; i < 10000; i++) {
+            Map<Object,Object> context = new Context();
+            context.put("user-id", i);
+            if (i % 2 == 0) {
+                context.put("token", "t" + i);
+            }
+            adaptive.execute(context);
+        }
+        return adaptive.currentOrder();
+    }
+
+    // Three independent lookups run in parallel (one level), then the handler that reads all of them
+    public static final DagChain fanOut = new DagChain(Arrays.asList(Terminator.keyPresent("response")),
+                                                       new DeclaredInterceptor(new Interceptor("example.user", ctx -> Maps.put(ctx, "user", "user-" + ctx.get("id")), null, null))
+                                                           .withReads("id").withWrites("user"),
+                                                       new DeclaredInterceptor(new Interceptor("example.orders", ctx -> Maps.put(ctx, "orders", 3), null, null))
+                                                           .withReads("id").withWrites("orders"),
+                                                       new DeclaredInterceptor(new Interceptor("example.prefs", ctx -> Maps.put(ctx, "prefs", "dark"), null, null))
+                                                           .withReads("id").withWrites("prefs"),
+                                                       new DeclaredInterceptor(new Interceptor("example.render",
+                                                                                               ctx -> Maps.put(ctx, "response", ctx.get("user") + ":" + ctx.get("orders") + ":" + ctx.get("prefs")),
+                                                                                               ctx -> Maps.put(ctx, "rendered", true),
+                                                                                               null))
+                                                           .withReads("user", "orders", "prefs").withWrites("response", "rendered"));
+
+    public static Map<Object,Object> exampleDag() {
+        Map<Object,Object> context = new Context();
+        context.put("id", 42);
+        return fanOut.execute(context);
+    }
+
+    // A stage pauses the chain while a lookup runs, and the chain is resumed by whichever thread completes it
+    public static Map<Object,Object> examplePause() {
+        CompletableFuture<Map<Object,Object>> result = new CompletableFuture<>();
+        Interceptor lookup = new Interceptor("example.lookup",
+                                             ctx -> {
+                                                 CompletableFuture<String> user = CompletableFuture.supplyAsync(() -> "user-42");
+                                                 ctx.put("user", user);
+                                                 ChainCursor cursor = ChainCursor.of(ctx);
+                                                 cursor.pause();
+                                                 user.thenRun(() -> finished(cursor, cursor.resume(), result));
+                                                 return ctx;
+                                             },
+                                             null, null);
+        Interceptor render = new Interceptor("example.render",
+                                             ctx -> Maps.put(ctx, "response", ((CompletableFuture) ctx.get("user")).join()),
+                                             null, null);
+
+        ChainCursor cursor = new ChainCursor(new Context().withInterceptors(lookup, render));
+        finished(cursor, cursor.run(), result);
+        return result.join();
+    }
+    private static void finished(ChainCursor cursor, Map<Object,Object> context, CompletableFuture<Map<Object,Object>> result) {
+        if (context != null && cursor.isDone()) {
+            result.complete(context);
+        }
+    }
+
+    // Requests are parsed into the Context and routed; two pipelined requests over loopback get both responses in order
+    public static String exampleHttp() throws IOException {
+        Router routes = new Router("method", "path").withRoute("GET/users/:id",
+                                                               new Interceptor(ctx -> Maps.put(ctx, "response", "user " + ctx.get("id")),
+                                                                               null, null));
+        try (HttpServer server = new HttpServer(new ChainTemplate(routes)).withPort(0).withLoops(1).start();
+             Socket socket = new Socket("127.0.0.1", server.port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /users/42 HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                       "GET /users/43 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream responses = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                responses.write(buffer, 0, n);
+            }
+            return new String(responses.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Dais Histogram
+ *
+ * A lock-free, fixed-memory latency histogram (in nanoseconds), in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into 16 linear sub-buckets,
+ * so any recorded value is reported within ~6% of its true value.
+ * Values from 0ns up to ~18 minutes (2^40ns) are tracked; anything larger is counted in the last bucket.
+ *
+ * Recording is a single atomic increment on one of a few stripes (chosen by thread),
+ * so concurrent threads recording into the same histogram rarely touch the same cache lines.
+ * Stripes are only allocated once a thread actually records into them.
+ */
+public final class Histogram {
+
+    static final int SUB_BITS = 4;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT + SUB_COUNT;
+    static final int STRIPES = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    // Each stripe holds the bucket counts, followed by the total count and the max
+    private static final int COUNT = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (value < 0) ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        return (shift * SUB_COUNT) + (int) (value >>> shift);
+    }
+
+    // The largest value that lands in the bucket
+    static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket / SUB_COUNT) - 1;
+        long sub = bucket - (shift * SUB_COUNT);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private AtomicLongArray stripe() {
+        int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        AtomicLongArray stripe = this.stripes.get(index);
+        if (stripe == null) {
+            this.stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS + 2));
+            stripe = this.stripes.get(index);
+        }
+        return stripe;
+    }
+
+    public void record(long nanos) {
+        AtomicLongArray stripe = stripe();
+        stripe.incrementAndGet(bucket(nanos));
+        stripe.incrementAndGet(COUNT);
+        long max = stripe.get(MAX);
+        while (nanos > max && !stripe.compareAndSet(MAX, max, nanos)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes.set(i, null);
+        }
+    }
+
+    /**
+     * A point-in-time view of the histogram: count, max, mean, and the p50/p90/p99/p999 (all in nanoseconds).
+     * Concurrent recording may or may not be included.
+     */
+    public Map<String,Long> snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            AtomicLongArray stripe = this.stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int b = 0; b < BUCKETS; b++) {
+                long c = stripe.get(b);
+                counts[b] += c;
+                total += c;
+            }
+            max = Math.max(max, stripe.get(MAX));
+        }
+
+        double sum = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            sum += (double) counts[b] * highestValue(b);
+        }
+
+        Map<String,Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", total);
+        snapshot.put("max", max);
+        snapshot.put("mean", (total == 0) ? 0L : Math.min(max, (long) (sum / total)));
+        snapshot.put("p50", percentile(counts, total, max, 0.50));
+        snapshot.put("p90", percentile(counts, total, max, 0.90));
+        snapshot.put("p99", percentile(counts, total, max, 0.99));
+        snapshot.put("p999", percentile(counts, total, max, 0.999));
+        return snapshot;
+    }
+
+    private static long percentile(long[] counts, long total, long max, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(highestValue(b), max);
+            }
+        }
+        return max;
+    }
+}
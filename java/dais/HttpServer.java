@@ -0,0 +1,993 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import dais.ChainTemplate;
+import dais.ContextPool;
+import dais.SlotContext;
+import dais.Chain;
+
+/**
+ * Dais HttpServer
+ *
+ * A minimal, dependency-free HTTP/1.1 front end: non-blocking NIO, with one selector (event loop) per core,
+ * where every request is run through a chain right on its connection's loop.
+ *
+ *   HttpServer server = new HttpServer(template).withPort(8080).start();
+ *   ...
+ *   server.close();
+ *
+ * The chain is a ChainTemplate (run over pooled Contexts, see ContextPool), or any execution function
+ * (eg: `dagChain::execute`).  Requests are parsed straight into the Context:
+ *   "method"   - the request method, eg: "GET"
+ *   "path"     - the request target, up to any '?' (so a `Router("method", "path")` routes requests as-is)
+ *   "query"    - the query string after the '?' (if there is one)
+ *   "protocol" - "HTTP/1.1" or "HTTP/1.0"
+ *   "headers"  - a Map of the headers, by lower-cased name (repeated headers are joined with ", ")
+ *   "body"     - a read-only ByteBuffer view of the body, in the connection's read buffer (not a copy);
+ *                its remaining bytes are the body
+ * The Context, the "headers" Map, and the "body" buffer are all reused once the response is written,
+ * so Interceptors must not hold on to them.  Strings are reused too, when a keep-alive connection repeats them.
+ *
+ * The response is read from the final Context's "response": a Map with a "status" (200 by default), "headers" (a Map),
+ * and a "body" -- or just the body.  A body can be a String (written as UTF-8), a byte[], a ByteBuffer (its remaining
+ * bytes, which aren't consumed), or null.  String and byte[] bodies are copied into the connection's write buffer,
+ * along with the status line and headers; ByteBuffer bodies aren't copied, they're sent with a gathering write.
+ * The server always sets Content-Length (and Connection).
+ * A Context with an unhandled "error" gets a 500, and one without a "response" gets a 404.
+ *
+ * Connections are kept alive (unless the client or its protocol says otherwise), and pipelined requests are answered
+ * in order, together, with one gathering write.  While a connection's responses can't be written (the client isn't reading),
+ * the server stops reading its requests.
+ * A request larger than `maxRequestSize` (1MB by default) gets a 413 (or a 431, when its headers are over 16KB),
+ * a malformed request gets a 400, and a chunked request body (which isn't supported) gets a 501 -- each of them closes the connection.
+ *
+ * Chains run on the event loops, so Interceptors must not block -- a blocked Interceptor stalls every connection on its loop.
+ */
+public final class HttpServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 1 << 20;
+
+    private static final int MAX_HEADER_SIZE = 16384;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    // Pipelined responses are written once this much is waiting
+    private static final int FLUSH_SIZE = 65536;
+
+    private static final ByteBuffer NO_BODY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[][] STATUS_LINES = statusLines();
+
+    // Request strings that are matched, rather than allocated
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+    private static final String[] HEADER_NAMES = {"host", "user-agent", "accept", "accept-encoding", "accept-language",
+                                                  "connection", "content-length", "content-type", "cookie", "authorization",
+                                                  "cache-control", "origin", "referer", "if-none-match", "if-modified-since",
+                                                  "expect", "transfer-encoding", "x-forwarded-for", "x-request-id"};
+
+    private final ChainTemplate template;
+    private final Function<Map<Object,Object>,Map<Object,Object>> execution;
+    private final ContextPool pool = new ContextPool();
+    private InetSocketAddress address = new InetSocketAddress(DEFAULT_PORT);
+    private int loopCount = Runtime.getRuntime().availableProcessors();
+    private int maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+
+    private ServerSocketChannel server;
+    private Loop[] loops;
+    // Only touched by the accepting loop
+    private int nextLoop;
+    private volatile boolean running;
+
+    public HttpServer(ChainTemplate template) {
+        if (template == null) {
+            throw new IllegalArgumentException("An HttpServer needs a chain to run requests through");
+        }
+        this.template = template;
+        this.execution = null;
+    }
+    public HttpServer(Function<Map<Object,Object>,Map<Object,Object>> execution) {
+        if (execution == null) {
+            throw new IllegalArgumentException("An HttpServer needs a chain to run requests through");
+        }
+        this.template = null;
+        this.execution = execution;
+    }
+
+    /* Configuration
+     * -----------------*/
+    public HttpServer withPort(int port) {
+        return withAddress(new InetSocketAddress(port));
+    }
+    public HttpServer withAddress(InetSocketAddress address) {
+        this.address = address;
+        return this;
+    }
+    public HttpServer withLoops(int loops) {
+        if (loops < 1) {
+            throw new IllegalArgumentException("An HttpServer needs at least one event loop");
+        }
+        this.loopCount = loops;
+        return this;
+    }
+    public HttpServer withMaxRequestSize(int bytes) {
+        if (bytes < READ_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The max request size must be at least " + READ_BUFFER_SIZE + " bytes");
+        }
+        this.maxRequestSize = bytes;
+        return this;
+    }
+
+    /* Lifecycle
+     * -----------------*/
+    public synchronized HttpServer start() throws IOException {
+        if (this.loops != null) {
+            throw new IllegalStateException("The HttpServer was already started");
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        Loop[] loops = new Loop[this.loopCount];
+        try {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(this.address, 1024);
+            server.configureBlocking(false);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new Loop(i);
+            }
+            server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly(server);
+            for (Loop loop : loops) {
+                if (loop != null) {
+                    closeQuietly(loop.selector);
+                }
+            }
+            throw e;
+        }
+        this.server = server;
+        this.loops = loops;
+        this.running = true;
+        for (Loop loop : loops) {
+            loop.thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * The port the server is listening on (useful when it was started on port 0), or -1 if it isn't started
+     */
+    public int port() {
+        return (this.server != null) ? this.server.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Stop accepting, close every connection, and wait for the event loops to finish
+     */
+    public synchronized void close() {
+        if (this.loops == null || !this.running) {
+            return;
+        }
+        this.running = false;
+        for (Loop loop : this.loops) {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : this.loops) {
+            if (loop.thread != Thread.currentThread()) {
+                try {
+                    loop.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        closeQuietly(this.server);
+    }
+
+    public String toString() {
+        return "HttpServer[port=" + port() + ", loops=" + this.loopCount + (this.running ? "]" : ", stopped]");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    /* Event Loops
+     * -----------------*/
+    final class Loop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        // Connections accepted by the first loop, waiting to be registered with this one
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+        Loop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "dais-http-" + index);
+        }
+
+        public void run() {
+            try {
+                while (running) {
+                    this.selector.select();
+                    for (SocketChannel channel; (channel = this.accepted.poll()) != null; ) {
+                        register(channel);
+                    }
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            ((Connection) key.attachment()).ready(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                for (SelectionKey key : this.selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        closeQuietly(key.channel());
+                    }
+                }
+                for (SocketChannel channel; (channel = this.accepted.poll()) != null; ) {
+                    closeQuietly(channel);
+                }
+                closeQuietly(this.selector);
+            }
+        }
+
+        // Connections are spread across the loops round-robin
+        private void accept() {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                    if (channel == null) {
+                        return;
+                    }
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    // eg: out of file descriptors -- the connection waits in the backlog until the next select
+                    return;
+                }
+                Loop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                if (loop == this) {
+                    register(channel);
+                } else {
+                    loop.accepted.offer(channel);
+                    loop.selector.wakeup();
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /* Connections
+     * -----------------*/
+    final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+
+        // The read buffer is always in "write" mode: its position is the end of what's been read
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // The start of the next request in the read buffer
+        int start;
+        // How far the next request has been searched for the end of its headers
+        int scanned;
+        // How big the read buffer has to be to hold the next request
+        int needed;
+        // Whether the next request has been sent a "100 Continue"
+        boolean continued;
+
+        final HashMap<String,String> headers = new HashMap<>();
+        String[] headerNames = new String[16];
+        int headerCount;
+        String path;
+        String query;
+
+        // Responses are written into `out` (its position is the end of what's waiting to be written) --
+        // everything but ByteBuffer bodies, which are gathered into `writes`, between regions of `out`
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        // The start of the region of `out` that isn't in `writes` yet
+        int region;
+        ByteBuffer[] writes = new ByteBuffer[8];
+        int writeCount;
+        int writeIndex;
+        int gathered;
+        boolean flushing;
+        boolean closing;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void ready(SelectionKey key) {
+            try {
+                if (key.isWritable()) {
+                    serve();
+                } else if (key.isReadable()) {
+                    if (this.channel.read(this.in) < 0) {
+                        close();
+                    } else {
+                        serve();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        void close() {
+            this.key.cancel();
+            closeQuietly(this.channel);
+        }
+
+        // Answer every complete request that's been read, and write the responses
+        void serve() throws IOException {
+            while (true) {
+                boolean served = false;
+                while (!this.flushing && !this.closing && this.out.position() + this.gathered < FLUSH_SIZE && handle()) {
+                    served = true;
+                }
+                if (!flush()) {
+                    interest(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (this.closing) {
+                    close();
+                    return;
+                }
+                compact();
+                if (!served) {
+                    interest(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        void interest(int ops) {
+            if (this.key.interestOps() != ops) {
+                this.key.interestOps(ops);
+            }
+        }
+
+        // Once everything's written: move the next (partial) request to the front of the read buffer, growing it if needed
+        void compact() {
+            int end = this.in.position();
+            if (this.start == end && this.in.capacity() > READ_BUFFER_SIZE) {
+                this.in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            } else if (this.start > 0) {
+                System.arraycopy(this.in.array(), this.start, this.in.array(), 0, end - this.start);
+                ((Buffer) this.in).position(end - this.start);
+            }
+            this.scanned -= this.start;
+            this.start = 0;
+            if (this.needed > this.in.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(maxRequestSize, Math.max(this.needed, this.in.capacity() * 2)));
+                grown.put(this.in.array(), 0, this.in.position());
+                this.in = grown;
+            }
+        }
+
+        /* Requests
+         * -----------------*/
+        // Run the next request through the chain, and buffer its response -- false if the request isn't all here yet
+        boolean handle() {
+            byte[] b = this.in.array();
+            int end = this.in.position();
+            // Empty lines before a request are ignored
+            while (this.start < end && (b[this.start] == '\r' || b[this.start] == '\n')) {
+                this.start++;
+            }
+            int start = this.start;
+            int headerEnd = headerEnd(b, Math.max(start, this.scanned - 3), end);
+            if (headerEnd < 0) {
+                this.scanned = end;
+                this.needed = end - start + 1;
+                return (this.needed > Math.min(MAX_HEADER_SIZE, maxRequestSize)) ? fail(431) : false;
+            }
+
+            // Request line
+            int lineEnd = indexOf(b, start, headerEnd, '\r');
+            int methodEnd = indexOf(b, start, lineEnd, ' ');
+            int targetEnd = (methodEnd < 0) ? -1 : indexOf(b, methodEnd + 1, lineEnd, ' ');
+            if (methodEnd <= start || targetEnd <= methodEnd + 1 || b[lineEnd + 1] != '\n') {
+                return fail(400);
+            }
+            String protocol = matches(b, targetEnd + 1, lineEnd, "HTTP/1.1") ? "HTTP/1.1" :
+                              matches(b, targetEnd + 1, lineEnd, "HTTP/1.0") ? "HTTP/1.0" :
+                              null;
+            if (protocol == null) {
+                return matches(b, targetEnd + 1, Math.min(lineEnd, targetEnd + 6), "HTTP/") ? fail(505) : fail(400);
+            }
+
+            // Headers
+            // (The protocol, method, and well-known header names are always the constant Strings, so they're compared by identity)
+            boolean keepAlive = (protocol == "HTTP/1.1");
+            boolean expectsContinue = false;
+            long contentLength = -1;
+            this.headerCount = 0;
+            for (int p = lineEnd + 2; p < headerEnd - 2; ) {
+                int eol = indexOf(b, p, headerEnd, '\r');
+                int colon = indexOf(b, p, eol, ':');
+                if (colon <= p || b[eol + 1] != '\n') {
+                    return fail(400);
+                }
+                String name = headerName(b, p, colon);
+                if (name == null) {
+                    return fail(400);
+                }
+                int from = colon + 1;
+                int to = eol;
+                while (from < to && (b[from] == ' ' || b[from] == '\t')) {
+                    from++;
+                }
+                while (to > from && (b[to - 1] == ' ' || b[to - 1] == '\t')) {
+                    to--;
+                }
+                String value = header(name, b, from, to);
+                if (name == "content-length") {
+                    long length = parseLength(b, from, to);
+                    if (length < 0 || (contentLength >= 0 && length != contentLength)) {
+                        return fail(400);
+                    }
+                    contentLength = length;
+                } else if (name == "transfer-encoding") {
+                    return fail(501);
+                } else if (name == "connection") {
+                    keepAlive = hasToken(value, "close") ? false :
+                                hasToken(value, "keep-alive") ? true :
+                                keepAlive;
+                } else if (name == "expect") {
+                    expectsContinue = value.equalsIgnoreCase("100-continue");
+                }
+                p = eol + 2;
+            }
+            removeStaleHeaders();
+
+            if (contentLength > maxRequestSize - (headerEnd - start)) {
+                return fail(413);
+            }
+            int length = headerEnd - start + (int) Math.max(contentLength, 0);
+            if (end - start < length) {
+                this.scanned = headerEnd - 4;
+                this.needed = length;
+                if (expectsContinue && !this.continued && protocol == "HTTP/1.1") {
+                    put(STATUS_LINES[100]);
+                    put(CRLF);
+                    this.continued = true;
+                }
+                return false;
+            }
+            this.start = start + length;
+            this.scanned = this.start;
+            this.needed = 0;
+            this.continued = false;
+
+            int queryStart = indexOf(b, methodEnd + 1, targetEnd, '?');
+            this.path = reuse(this.path, b, methodEnd + 1, (queryStart < 0) ? targetEnd : queryStart);
+            this.query = (queryStart < 0) ? null : reuse(this.query, b, queryStart + 1, targetEnd);
+            ByteBuffer body = NO_BODY;
+            if (contentLength > 0) {
+                body = this.in.asReadOnlyBuffer();
+                ((Buffer) body).limit(headerEnd + (int) contentLength);
+                ((Buffer) body).position(headerEnd);
+            }
+            String method = method(b, start, methodEnd);
+
+            SlotContext context = pool.acquire();
+            try {
+                context.put("method", method);
+                context.put("path", this.path);
+                if (this.query != null) {
+                    context.put("query", this.query);
+                }
+                context.put("protocol", protocol);
+                context.put("headers", this.headers);
+                context.put("body", body);
+                if (!keepAlive) {
+                    this.closing = true;
+                }
+                respond(execute(context), protocol == "HTTP/1.0", method == "HEAD");
+            } finally {
+                pool.release(context);
+            }
+            return true;
+        }
+
+        Map<Object,Object> execute(SlotContext context) {
+            try {
+                return (template != null) ? pool.execute(context, template) : execution.apply(context);
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        // Buffer an error response (with no body), and close the connection once it's written
+        boolean fail(int status) {
+            this.closing = true;
+            respond(status, null, null, false, false);
+            return false;
+        }
+
+        String headerName(byte[] b, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (b[i] <= ' ' || b[i] == 127) {
+                    return null;
+                }
+            }
+            for (String name : HEADER_NAMES) {
+                if (matchesIgnoreCase(b, from, to, name)) {
+                    return name;
+                }
+            }
+            return new String(b, from, to - from, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        }
+
+        // A header's value, reusing the previous request's String when it's the same
+        String header(String name, byte[] b, int from, int to) {
+            for (int i = 0; i < this.headerCount; i++) {
+                if (this.headerNames[i].equals(name)) {
+                    // A repeated header
+                    String value = this.headers.get(name) + ", " + new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+                    this.headers.put(name, value);
+                    return value;
+                }
+            }
+            if (this.headerCount == this.headerNames.length) {
+                String[] names = new String[this.headerCount * 2];
+                System.arraycopy(this.headerNames, 0, names, 0, this.headerCount);
+                this.headerNames = names;
+            }
+            this.headerNames[this.headerCount++] = name;
+            String previous = this.headers.get(name);
+            String value = reuse(previous, b, from, to);
+            if (value != previous) {
+                this.headers.put(name, value);
+            }
+            return value;
+        }
+
+        // Drop the headers the previous request had, that this one doesn't
+        void removeStaleHeaders() {
+            if (this.headers.size() == this.headerCount) {
+                return;
+            }
+            Iterator<String> names = this.headers.keySet().iterator();
+            while (names.hasNext()) {
+                String name = names.next();
+                boolean current = false;
+                for (int i = 0; i < this.headerCount && !current; i++) {
+                    current = this.headerNames[i].equals(name);
+                }
+                if (!current) {
+                    names.remove();
+                }
+            }
+        }
+
+        /* Responses
+         * -----------------*/
+        void respond(Map<Object,Object> context, boolean http10, boolean headRequest) {
+            if (context == null || Chain.errorOf(context) != null) {
+                respond(500, null, null, http10, headRequest);
+                return;
+            }
+            Object response = context.get("response");
+            if (response instanceof Map) {
+                Map<?,?> r = (Map<?,?>) response;
+                Object status = r.get("status");
+                Object headers = r.get("headers");
+                respond((status instanceof Number) ? ((Number) status).intValue() : 200,
+                        (headers instanceof Map) ? (Map<?,?>) headers : null, r.get("body"), http10, headRequest);
+            } else if (response != null) {
+                respond(200, null, response, http10, headRequest);
+            } else {
+                respond(404, null, null, http10, headRequest);
+            }
+        }
+
+        void respond(int status, Map<?,?> headers, Object body, boolean http10, boolean headRequest) {
+            if (status < 100 || status >= STATUS_LINES.length) {
+                status = 500;
+                headers = null;
+                body = null;
+            }
+            if (!(body == null || body instanceof byte[] || body instanceof ByteBuffer || body instanceof String)) {
+                body = body.toString();
+            }
+            boolean bodiless = status < 200 || status == 204 || status == 304;
+            put(STATUS_LINES[status]);
+            if (headers != null) {
+                for (Map.Entry<?,?> header : headers.entrySet()) {
+                    String name = String.valueOf(header.getKey());
+                    if (!(name.equalsIgnoreCase("content-length") || name.equalsIgnoreCase("connection") ||
+                          name.equalsIgnoreCase("transfer-encoding") || header.getValue() == null)) {
+                        putLatin1(name);
+                        put((byte) ':');
+                        put((byte) ' ');
+                        putLatin1(header.getValue().toString());
+                        put(CRLF);
+                    }
+                }
+            }
+            if (!bodiless) {
+                put(CONTENT_LENGTH);
+                putDigits((body instanceof String) ? utf8Length((String) body) :
+                          (body instanceof byte[]) ? ((byte[]) body).length :
+                          (body instanceof ByteBuffer) ? ((ByteBuffer) body).remaining() :
+                          0);
+                put(CRLF);
+            }
+            if (this.closing) {
+                put(CONNECTION_CLOSE);
+            } else if (http10) {
+                put(CONNECTION_KEEP_ALIVE);
+            }
+            put(CRLF);
+            if (bodiless || headRequest || body == null) {
+                return;
+            }
+            if (body instanceof String) {
+                putUtf8((String) body);
+            } else if (body instanceof byte[]) {
+                put((byte[]) body);
+            } else {
+                gather(((ByteBuffer) body).duplicate());
+            }
+        }
+
+        void reserve(int bytes) {
+            if (this.out.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(this.out.capacity() * 2, this.out.position() + bytes));
+                grown.put(this.out.array(), 0, this.out.position());
+                this.out = grown;
+            }
+        }
+        void put(byte b) {
+            reserve(1);
+            this.out.put(b);
+        }
+        void put(byte[] bytes) {
+            reserve(bytes.length);
+            this.out.put(bytes);
+        }
+        // Header text: one byte per char, with CR and LF blanked out (so a header can't inject another)
+        void putLatin1(String s) {
+            int n = s.length();
+            reserve(n);
+            byte[] a = this.out.array();
+            int p = this.out.position();
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                a[p + i] = (byte) ((c == '\r' || c == '\n') ? ' ' : (c > 0xff) ? '?' : c);
+            }
+            ((Buffer) this.out).position(p + n);
+        }
+        void putDigits(int n) {
+            reserve(10);
+            byte[] a = this.out.array();
+            int p = this.out.position();
+            int digits = 1;
+            for (int m = n; m >= 10; m /= 10) {
+                digits++;
+            }
+            for (int i = p + digits - 1; i >= p; i--) {
+                a[i] = (byte) ('0' + n % 10);
+                n /= 10;
+            }
+            ((Buffer) this.out).position(p + digits);
+        }
+        void putUtf8(String s) {
+            int n = s.length();
+            reserve(utf8Length(s));
+            byte[] a = this.out.array();
+            int p = this.out.position();
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    a[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    a[p++] = (byte) (0xc0 | (c >> 6));
+                    a[p++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, s.charAt(++i));
+                        a[p++] = (byte) (0xf0 | (cp >> 18));
+                        a[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                        a[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                        a[p++] = (byte) (0x80 | (cp & 0x3f));
+                    } else {
+                        a[p++] = '?';
+                    }
+                } else {
+                    a[p++] = (byte) (0xe0 | (c >> 12));
+                    a[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    a[p++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            ((Buffer) this.out).position(p);
+        }
+
+        // Add a buffer to the gathering write (after the region of `out` before it)
+        void gather(ByteBuffer buffer) {
+            if (this.out.position() > this.region) {
+                add(region(this.out, this.region, this.out.position()));
+                this.region = this.out.position();
+            }
+            add(buffer);
+            this.gathered += buffer.remaining();
+        }
+        void add(ByteBuffer buffer) {
+            if (this.writeCount == this.writes.length) {
+                ByteBuffer[] writes = new ByteBuffer[this.writeCount * 2];
+                System.arraycopy(this.writes, 0, writes, 0, this.writeCount);
+                this.writes = writes;
+            }
+            this.writes[this.writeCount++] = buffer;
+        }
+
+        // Write what's waiting -- false if the socket can't take all of it yet
+        boolean flush() throws IOException {
+            if (!this.flushing) {
+                if (this.writeCount == 0) {
+                    if (this.out.position() == 0) {
+                        return true;
+                    }
+                    ((Buffer) this.out).flip();
+                    add(this.out);
+                } else if (this.out.position() > this.region) {
+                    add(region(this.out, this.region, this.out.position()));
+                }
+                this.flushing = true;
+            }
+            while (this.writeIndex < this.writeCount) {
+                long written = this.channel.write(this.writes, this.writeIndex, this.writeCount - this.writeIndex);
+                while (this.writeIndex < this.writeCount && !this.writes[this.writeIndex].hasRemaining()) {
+                    this.writes[this.writeIndex++] = null;
+                }
+                if (written == 0 && this.writeIndex < this.writeCount) {
+                    return false;
+                }
+            }
+            ((Buffer) this.out).clear();
+            this.region = 0;
+            this.writeCount = 0;
+            this.writeIndex = 0;
+            this.gathered = 0;
+            this.flushing = false;
+            return true;
+        }
+    }
+
+    /* Encoding
+     * -----------------*/
+    // (Position and limit are set through Buffer, so the class runs on Java 8 when it's compiled by a later javac)
+    static ByteBuffer region(ByteBuffer buffer, int from, int to) {
+        ByteBuffer region = buffer.duplicate();
+        ((Buffer) region).limit(to);
+        ((Buffer) region).position(from);
+        return region;
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static int indexOf(byte[] b, int from, int to, char c) {
+        for (int i = Math.max(from, 0); i < to; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The index just past the blank line that ends the headers, or -1
+    static int headerEnd(byte[] b, int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (b[i + 3] == '\n' && b[i] == '\r' && b[i + 1] == '\n' && b[i + 2] == '\r') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    static boolean matches(byte[] b, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (b[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // `s` is lower-case
+    static boolean matchesIgnoreCase(byte[] b, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int c = b[from + i];
+            if (((c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // `previous`, if it has the same (Latin-1) text as the bytes, otherwise a new String
+    static String reuse(String previous, byte[] b, int from, int to) {
+        if (previous != null && previous.length() == to - from) {
+            boolean same = true;
+            for (int i = 0; i < to - from && same; i++) {
+                same = previous.charAt(i) == (b[from + i] & 0xff);
+            }
+            if (same) {
+                return previous;
+            }
+        }
+        return new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    static String method(byte[] b, int from, int to) {
+        for (String method : METHODS) {
+            if (matches(b, from, to, method)) {
+                return method;
+            }
+        }
+        return new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    // A Content-Length value, or -1 if it isn't valid
+    static long parseLength(byte[] b, int from, int to) {
+        if (from == to || to - from > 18) {
+            return -1;
+        }
+        long length = 0;
+        for (int i = from; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return -1;
+            }
+            length = length * 10 + (b[i] - '0');
+        }
+        return length;
+    }
+
+    // Whether a comma-separated header value contains the token (ignoring case)
+    static boolean hasToken(String value, String token) {
+        int n = value.length();
+        for (int i = 0; i < n; ) {
+            int comma = value.indexOf(',', i);
+            int to = (comma < 0) ? n : comma;
+            int from = i;
+            while (from < to && value.charAt(from) == ' ') {
+                from++;
+            }
+            while (to > from && value.charAt(to - 1) == ' ') {
+                to--;
+            }
+            if (to - from == token.length() && value.regionMatches(true, from, token, 0, token.length())) {
+                return true;
+            }
+            i = (comma < 0) ? n : comma + 1;
+        }
+        return false;
+    }
+
+    static int utf8Length(String s) {
+        int n = s.length();
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static byte[][] statusLines() {
+        byte[][] lines = new byte[600][];
+        for (int status = 100; status < 600; status++) {
+            lines[status] = ascii("HTTP/1.1 " + status + " " + reason(status) + "\r\n");
+        }
+        return lines;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 100: return "Continue";
+            case 101: return "Switching Protocols";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 303: return "See Other";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 406: return "Not Acceptable";
+            case 408: return "Request Timeout";
+            case 409: return "Conflict";
+            case 410: return "Gone";
+            case 411: return "Length Required";
+            case 412: return "Precondition Failed";
+            case 413: return "Content Too Large";
+            case 415: return "Unsupported Media Type";
+            case 422: return "Unprocessable Content";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            case 505: return "HTTP Version Not Supported";
+            default: return "";
+        }
+    }
+}
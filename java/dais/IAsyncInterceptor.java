@@ -0,0 +1,54 @@
+
+package dais;
+
+import java.util.function.Function;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
+
+import dais.IInterceptor;
+
+/**
+ * An Interceptor whose stages may complete asynchronously.
+ *
+ * Async stages return a CompletionStage of the updated Context.
+ * In the AsyncChain, a stage that's already complete is processed inline (on the same thread),
+ * and the chain only moves to another thread when a stage returns an incomplete CompletionStage.
+ *
+ * IAsyncInterceptors are also IInterceptors, so they can be placed in a regular (synchronous) Chain;
+ * there, the default `getEnter`/`getLeave`/`getError` block until the stage completes.
+ */
+public interface IAsyncInterceptor extends IInterceptor {
+    public Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> getAsyncEnter();
+    public Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> getAsyncLeave();
+    public Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> getAsyncError();
+
+    default Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+        return blocking(getAsyncEnter());
+    }
+    default Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+        return blocking(getAsyncLeave());
+    }
+    default Function<Map<Object,Object>,Map<Object,Object>> getError() {
+        return blocking(getAsyncError());
+    }
+
+    static Function<Map<Object,Object>,Map<Object,Object>> blocking(Function<Map<Object,Object>,CompletionStage<Map<Object,Object>>> asyncFn) {
+        if (asyncFn == null) {
+            return null;
+        }
+        return ctx -> {
+            try {
+                return asyncFn.apply(ctx).toCompletableFuture().join();
+            } catch (CompletionException ce) {
+                Throwable cause = ce.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw ce;
+            }
+        };
+    }
+}
@@ -12,6 +12,27 @@ public interface IInterceptor {
     public Function<Map<Object,Object>,Map<Object,Object>> getLeave();
     public Function<Map<Object,Object>,Map<Object,Object>> getError();
 
+    /**
+     * A name for the Interceptor, used by instrumentation (metrics and events).
+     * Instrumentation aggregates by name, so names should be stable -- not per-instance.
+     */
+    default String getName() {
+        return getClass().getName();
+    }
+
+    /**
+     * The function for a stage id (see Stages), or null if the Interceptor doesn't have that stage.
+     * Only enter, leave, and error are supported by default.
+     */
+    default Function<Map<Object,Object>,Map<Object,Object>> getStage(int stageId) {
+        switch (stageId) {
+            case Stages.ENTER: return getEnter();
+            case Stages.LEAVE: return getLeave();
+            case Stages.ERROR: return getError();
+            default: return null;
+        }
+    }
+
     static Map<Object,Object> enter(IInterceptor interceptor, Map<Object,Object> context) {
         Function<Map<Object,Object>,Map<Object,Object>> eFn = (interceptor != null) ? interceptor.getEnter() : null;
         if (eFn != null) {
@@ -4,10 +4,12 @@ package dais;
 import dais.ToInterceptor;
 import dais.IInterceptor;
 import dais.Maps;
+import dais.Stages;
 
 import java.util.function.Function;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.stream.Stream;
 
@@ -17,8 +19,13 @@ public class Interceptor implements IInterceptor, ToInterceptor {
     public final Function<Map<Object,Object>,Map<Object,Object>> leaveFn;
     public final Function<Map<Object,Object>,Map<Object,Object>> errorFn;
     public final Map<String, Function<Map<Object,Object>,Map<Object,Object>>> stages;
+    public final String name;
+    // Stage functions, indexed by stage id (see Stages), covering every stage registered when they were resolved.
+    // Stages registered later have higher ids, so they're resolved (once) the first time they're asked for.
+    private volatile Function<Map<Object,Object>,Map<Object,Object>>[] stageFns;
 
-    public Interceptor(Function<Map<Object,Object>,Map<Object,Object>> enter,
+    public Interceptor(String name,
+                       Function<Map<Object,Object>,Map<Object,Object>> enter,
                        Function<Map<Object,Object>,Map<Object,Object>> leave,
                        Function<Map<Object,Object>,Map<Object,Object>> error) {
         // Note: This doesn't allow for nulls
@@ -35,13 +42,25 @@ public class Interceptor implements IInterceptor, ToInterceptor {
         this.enterFn = enter;
         this.leaveFn = leave;
         this.errorFn = error;
+        this.name = name;
+        resolveStages();
+    }
+    public Interceptor(Function<Map<Object,Object>,Map<Object,Object>> enter,
+                       Function<Map<Object,Object>,Map<Object,Object>> leave,
+                       Function<Map<Object,Object>,Map<Object,Object>> error) {
+        this(null, enter, leave, error);
     }
 
-    public Interceptor(Map<String, Function<Map<Object,Object>,Map<Object,Object>>> initialStages) {
+    public Interceptor(String name, Map<String, Function<Map<Object,Object>,Map<Object,Object>>> initialStages) {
+        this.name = name;
         this.stages = Collections.unmodifiableMap(initialStages);
         this.enterFn = this.stages.get("enter");
         this.leaveFn = this.stages.get("leave");
         this.errorFn = this.stages.get("error");
+        resolveStages();
+    }
+    public Interceptor(Map<String, Function<Map<Object,Object>,Map<Object,Object>>> initialStages) {
+        this(null, initialStages);
     }
 
     /* IInterceptor
@@ -56,9 +75,41 @@ public class Interceptor implements IInterceptor, ToInterceptor {
         return this.errorFn;
     }
 
+    // Unnamed Interceptors are named after their functions' classes, which are stable for a given lambda (call site)
+    public String getName() {
+        if (this.name != null) {
+            return this.name;
+        }
+        Function<Map<Object,Object>,Map<Object,Object>> fn = (this.enterFn != null) ? this.enterFn :
+                                                             (this.leaveFn != null) ? this.leaveFn : this.errorFn;
+        return (fn != null) ? fn.getClass().getName() : IInterceptor.super.getName();
+    }
+
     public Function<Map<Object,Object>,Map<Object,Object>> getStage(String stageName) {
         return this.stages.get(stageName);
     }
+    public Function<Map<Object,Object>,Map<Object,Object>> getStage(int stageId) {
+        Function<Map<Object,Object>,Map<Object,Object>>[] stageFns = this.stageFns;
+        if (stageId >= stageFns.length) {
+            stageFns = resolveStages();
+        }
+        return (stageId < stageFns.length) ? stageFns[stageId] : null;
+    }
+
+    // Index the stage functions by the ids of every stage registered so far
+    private Function<Map<Object,Object>,Map<Object,Object>>[] resolveStages() {
+        int count = Stages.count();
+        @SuppressWarnings("unchecked")
+        Function<Map<Object,Object>,Map<Object,Object>>[] stageFns = (Function<Map<Object,Object>,Map<Object,Object>>[]) new Function<?,?>[count];
+        for (Map.Entry<String, Function<Map<Object,Object>,Map<Object,Object>>> stage : this.stages.entrySet()) {
+            int id = Stages.id(stage.getKey());
+            if (id >= 0 && id < count) {
+                stageFns[id] = stage.getValue();
+            }
+        }
+        this.stageFns = stageFns;
+        return stageFns;
+    }
 
     /* ToInterceptor
      * ------------------*/
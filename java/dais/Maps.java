@@ -17,6 +17,8 @@ import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
 
+import dais.SlotContext;
+
 public class Maps {
 
     public static <K, V> Map.Entry<K, V> entry(K key, V value) {
@@ -65,6 +67,54 @@ public class Maps {
         //return notFound;
     }
 
+    /* Primitive values
+     * -----------------*/
+    // SlotContexts store primitives unboxed (see SlotContext); other Maps box them
+    public static Map<Object,Object> putLong(Map<Object,Object> m, Object key, long value) {
+        if (m instanceof SlotContext) {
+            return ((SlotContext) m).putLong(key, value);
+        }
+        m.put(key, value);
+        return m;
+    }
+    public static Map<Object,Object> putInt(Map<Object,Object> m, Object key, int value) {
+        if (m instanceof SlotContext) {
+            return ((SlotContext) m).putInt(key, value);
+        }
+        m.put(key, value);
+        return m;
+    }
+    public static Map<Object,Object> putDouble(Map<Object,Object> m, Object key, double value) {
+        if (m instanceof SlotContext) {
+            return ((SlotContext) m).putDouble(key, value);
+        }
+        m.put(key, value);
+        return m;
+    }
+
+    // The value (which must be a Number) as a primitive, or `notFound` if it's missing
+    public static long getLong(Map<Object,Object> m, Object key, long notFound) {
+        if (m instanceof SlotContext) {
+            return ((SlotContext) m).getLong(key, notFound);
+        }
+        Object v = m.get(key);
+        return (v != null) ? ((Number) v).longValue() : notFound;
+    }
+    public static int getInt(Map<Object,Object> m, Object key, int notFound) {
+        if (m instanceof SlotContext) {
+            return ((SlotContext) m).getInt(key, notFound);
+        }
+        Object v = m.get(key);
+        return (v != null) ? ((Number) v).intValue() : notFound;
+    }
+    public static double getDouble(Map<Object,Object> m, Object key, double notFound) {
+        if (m instanceof SlotContext) {
+            return ((SlotContext) m).getDouble(key, notFound);
+        }
+        Object v = m.get(key);
+        return (v != null) ? ((Number) v).doubleValue() : notFound;
+    }
+
     public static <K,V> Optional<V> optGet(Map<K,V> m, K key) {
         return Optional.ofNullable(m.get(key));
     }
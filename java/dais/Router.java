@@ -0,0 +1,331 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Deque;
+import java.util.ArrayList;
+import java.util.function.Function;
+
+import dais.IInterceptor;
+import dais.ToInterceptor;
+import dais.ChainTemplate;
+import dais.ChainError;
+
+/**
+ * Dais Router
+ *
+ * An Interceptor that picks a sub-chain based on the Context, and splices it onto the front of the "dais.queue".
+ *
+ * The Router is given the Context keys to route on.  The values of those keys (Strings, or anything else via `toString`)
+ * are split on "/" into one sequence of segments.  For example, with `new Router("method", "path")`,
+ * the Context {"method" "GET", "path" "/users/42/orders"} has the segments GET, users, 42, orders.
+ *
+ * Routes are "/"-separated patterns of segments:
+ *  - static segments match exactly (eg: "GET/users"),
+ *  - `:name` matches any single segment, and writes it into the Context as "name" (eg: "GET/users/:id"),
+ *  - `*` matches any single segment, without capturing it,
+ *  - `**` (only at the end of a pattern) matches the rest of the segments, if any.
+ * When more than one route matches, static segments win over parameters, and parameters win over wildcards.
+ *
+ * Routes are compiled into a trie when they're added, where every node has an open-addressed table of its static children.
+ * Matching walks the segments in place (there's no splitting or substring allocation),
+ * so it's O(path length), no matter how many routes there are.
+ * The only allocations while routing are the captured parameter values.
+ *
+ * On a match, the route's pattern is written to the Context as "dais.route", and the route's Interceptors are spliced
+ * onto the front of the queue, so they run next.  The queue must be a Deque (including a ChainTemplate Cursor);
+ * static (array) queues can't be routed.
+ * When nothing matches, the `withNotFound` Interceptors are spliced instead; if there aren't any,
+ * the `Router.NO_ROUTE` ChainError is raised.
+ *
+ * Routes should all be added before the Router is used -- adding routes isn't safe while routing.
+ */
+public final class Router implements IInterceptor, ToInterceptor {
+
+    public static final ChainError NO_ROUTE = ChainError.define("dais.router/no-route", "No route matched the Context");
+
+    private static final IInterceptor[] NO_INTERCEPTORS = new IInterceptor[0];
+
+    private final Object[] keys;
+    private final Node root = new Node();
+    private IInterceptor[] notFound;
+    private int routeCount;
+
+    private final Function<Map<Object,Object>,Map<Object,Object>> enterFn = this::route;
+
+    public Router(Object... keys) {
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("A Router needs at least one Context key to route on");
+        }
+        this.keys = keys.clone();
+    }
+
+    static final class Route {
+        final String pattern;
+        final IInterceptor[] interceptors;
+
+        Route(String pattern, IInterceptor[] interceptors) {
+            this.pattern = pattern;
+            this.interceptors = interceptors;
+        }
+    }
+
+    // A trie node; static children are kept in an open-addressed table, keyed by segment
+    static final class Node {
+        String[] segments = new String[2];
+        Node[] children = new Node[2];
+        int childCount;
+
+        String paramName;
+        Node param;
+        Node wildcard;
+        Route rest;
+        Route route;
+
+        Node child(CharSequence s, int start, int end) {
+            String[] segments = this.segments;
+            int mask = segments.length - 1;
+            for (int i = hash(s, start, end) & mask; ; i = (i + 1) & mask) {
+                String segment = segments[i];
+                if (segment == null) {
+                    return null;
+                }
+                if (segment.length() == end - start && regionEquals(segment, s, start)) {
+                    return this.children[i];
+                }
+            }
+        }
+
+        Node addChild(String segment) {
+            Node existing = child(segment, 0, segment.length());
+            if (existing != null) {
+                return existing;
+            }
+            if ((this.childCount + 1) * 2 > this.segments.length) {
+                String[] oldSegments = this.segments;
+                Node[] oldChildren = this.children;
+                this.segments = new String[oldSegments.length * 2];
+                this.children = new Node[oldSegments.length * 2];
+                for (int i = 0; i < oldSegments.length; i++) {
+                    if (oldSegments[i] != null) {
+                        insert(oldSegments[i], oldChildren[i]);
+                    }
+                }
+            }
+            Node node = new Node();
+            insert(segment, node);
+            this.childCount++;
+            return node;
+        }
+
+        private void insert(String segment, Node node) {
+            int mask = this.segments.length - 1;
+            int i = hash(segment, 0, segment.length()) & mask;
+            while (this.segments[i] != null) {
+                i = (i + 1) & mask;
+            }
+            this.segments[i] = segment;
+            this.children[i] = node;
+        }
+    }
+
+    // String.hashCode over a region, spread so the low bits are usable as a table index
+    static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean regionEquals(String segment, CharSequence s, int start) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (segment.charAt(i) != s.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Configuration
+     * -----------------*/
+    public Router withRoute(String pattern, IInterceptor... interceptors) {
+        for (int i = 0; i < interceptors.length; i++) {
+            if (interceptors[i] == null) {
+                throw new IllegalArgumentException("Routes can't contain null Interceptors; found one in " + pattern + " at index " + i);
+            }
+        }
+        Route route = new Route(pattern, interceptors.clone());
+
+        String[] segments = segments(pattern);
+        Node node = this.root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals("**")) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("`**` can only end a route: " + pattern);
+                }
+                if (node.rest != null) {
+                    throw new IllegalArgumentException("Duplicate route: " + pattern);
+                }
+                node.rest = route;
+                this.routeCount++;
+                return this;
+            } else if (segment.equals("*")) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node();
+                }
+                node = node.wildcard;
+            } else if (segment.startsWith(":")) {
+                String name = segment.substring(1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Route " + pattern + " names a parameter `" + name +
+                                                       "`, but another route uses `" + node.paramName + "` in the same position");
+                }
+                node = node.param;
+            } else {
+                node = node.addChild(segment);
+            }
+        }
+        if (node.route != null) {
+            throw new IllegalArgumentException("Duplicate route: " + pattern);
+        }
+        node.route = route;
+        this.routeCount++;
+        return this;
+    }
+    // Routes to the template's Interceptors (the template's Terminators don't apply)
+    public Router withRoute(String pattern, ChainTemplate template) {
+        return withRoute(pattern, template.interceptors);
+    }
+    public Router withRoutes(Map<String,List<IInterceptor>> routes) {
+        for (Map.Entry<String,List<IInterceptor>> route : routes.entrySet()) {
+            withRoute(route.getKey(), route.getValue().toArray(NO_INTERCEPTORS));
+        }
+        return this;
+    }
+
+    public Router withNotFound(IInterceptor... interceptors) {
+        this.notFound = interceptors.clone();
+        return this;
+    }
+
+    public int size() {
+        return this.routeCount;
+    }
+
+    private static String[] segments(String pattern) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : pattern.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    /* Routing
+     * -----------------*/
+    private CharSequence value(Map<Object,Object> context, int k) {
+        Object v = context.get(this.keys[k]);
+        return (v == null || v instanceof CharSequence) ? (CharSequence) v : v.toString();
+    }
+
+    /**
+     * Match the Context against the routes (writing any path parameters into the Context).
+     * Returns the matched route's pattern, or null.
+     */
+    public String match(Map<Object,Object> context) {
+        Route route = match(this.root, context, 0, 0);
+        return (route != null) ? route.pattern : null;
+    }
+
+    // `k` is the index of the key being walked, and `pos` the position in its value
+    private Route match(Node node, Map<Object,Object> context, int k, int pos) {
+        CharSequence v = null;
+        for (; k < this.keys.length; k++, pos = 0) {
+            v = value(context, k);
+            if (v != null) {
+                int length = v.length();
+                while (pos < length && v.charAt(pos) == '/') {
+                    pos++;
+                }
+                if (pos < length) {
+                    break;
+                }
+            }
+        }
+        if (k == this.keys.length) {
+            return (node.route != null) ? node.route : node.rest;
+        }
+
+        int end = pos;
+        int length = v.length();
+        while (end < length && v.charAt(end) != '/') {
+            end++;
+        }
+
+        Route route;
+        if (node.childCount != 0) {
+            Node child = node.child(v, pos, end);
+            if (child != null && (route = match(child, context, k, end)) != null) {
+                return route;
+            }
+        }
+        if (node.param != null && (route = match(node.param, context, k, end)) != null) {
+            context.put(node.paramName, v.subSequence(pos, end).toString());
+            return route;
+        }
+        if (node.wildcard != null && (route = match(node.wildcard, context, k, end)) != null) {
+            return route;
+        }
+        return node.rest;
+    }
+
+    private Map<Object,Object> route(Map<Object,Object> context) {
+        Object queue = context.get("dais.queue");
+        if (!(queue instanceof Deque)) {
+            throw new IllegalStateException("The Router can only splice routes into a Deque \"dais.queue\"");
+        }
+        Route route = match(this.root, context, 0, 0);
+        IInterceptor[] interceptors;
+        if (route != null) {
+            context.put("dais.route", route.pattern);
+            interceptors = route.interceptors;
+        } else if (this.notFound != null) {
+            interceptors = this.notFound;
+        } else {
+            return ChainError.raise(context, NO_ROUTE);
+        }
+
+        @SuppressWarnings("unchecked")
+        Deque<IInterceptor> q = (Deque<IInterceptor>) queue;
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            q.addFirst(interceptors[i]);
+        }
+        return context;
+    }
+
+    /* IInterceptor
+     * -----------------*/
+    public Function<Map<Object,Object>,Map<Object,Object>> getEnter() {
+        return this.enterFn;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getLeave() {
+        return null;
+    }
+    public Function<Map<Object,Object>,Map<Object,Object>> getError() {
+        return null;
+    }
+    public String getName() {
+        return "dais.Router";
+    }
+
+    public IInterceptor toInterceptor() {
+        return this;
+    }
+}
@@ -0,0 +1,646 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import dais.ToInterceptor;
+import dais.Interceptor;
+import dais.ChainTemplate;
+import dais.Terminator;
+import dais.TerminatorSet;
+
+/**
+ * Dais SlotContext
+ *
+ * A Context (Map) with an array-backed layout.
+ *
+ * Every key is interned (once, globally) into a Key, which owns an integer slot.
+ * A SlotContext stores values in an array indexed by slot, so reads and writes through a Key do no hashing at all,
+ * and reads/writes through the plain key (eg: "a") are a single lookup in the (shared) interning table.
+ *
+ * The Chain's control entries -- "dais.queue", "dais.stack", "dais.terminators", "dais.deadline", and "error" --
+ * are real fields, and the Chain reads "error" directly from the field after every Interceptor.
+ *
+ * Declarative Terminators (see Terminator) in the "dais.terminators" are evaluated when their keys are written,
+ * so the Chain only checks a single "terminate" flag for them after every Interceptor.
+ *
+ * Primitive values (`putLong`/`getLong`, `putInt`/`getInt`, `putDouble`/`getDouble`) are stored unboxed,
+ * in a primitive array alongside the values, and a tag in the value slot records their type.
+ * Writing and reading them through the primitive accessors never boxes; the Map view boxes them on demand
+ * (an int reads back as an Integer, a long as a Long, a double as a Double), so other Interceptors see them as usual.
+ *
+ * A SlotContext is a full Map<Object,Object>, so existing Interceptors work unchanged.
+ * Note: Writing null to a control entry is the same as removing it.
+ *
+ * Keys are never un-interned.  The SlotContext is meant for a bounded vocabulary of keys
+ * (the keys your Interceptors use), not for keys derived from request data.
+ */
+public class SlotContext extends AbstractMap<Object,Object> {
+
+    /**
+     * An interned Context key.
+     * Control keys have negative slots, and are stored in fields of the SlotContext.
+     */
+    public static final class Key {
+        public final Object name;
+        public final int slot;
+
+        Key(Object name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        public String toString() {
+            return String.valueOf(this.name);
+        }
+    }
+
+    static final int ERROR = -1;
+    static final int QUEUE = -2;
+    static final int STACK = -3;
+    static final int TERMINATORS = -4;
+    static final int DEADLINE = -5;
+
+    private static final ConcurrentHashMap<Object,Key> KEYS = new ConcurrentHashMap<>();
+    private static volatile Key[] SLOTS = new Key[16];
+    private static int slotCount = 0;
+
+    public static final Key ERROR_KEY = control("error", ERROR);
+    public static final Key QUEUE_KEY = control("dais.queue", QUEUE);
+    public static final Key STACK_KEY = control("dais.stack", STACK);
+    public static final Key TERMINATORS_KEY = control("dais.terminators", TERMINATORS);
+    public static final Key DEADLINE_KEY = control("dais.deadline", DEADLINE);
+
+    private static Key control(String name, int slot) {
+        Key k = new Key(name, slot);
+        KEYS.put(name, k);
+        return k;
+    }
+
+    /**
+     * Intern a key, returning its Key.
+     * Hold on to the Key (eg: in a static final) to skip the interning lookup on every access.
+     */
+    public static Key key(Object name) {
+        if (name instanceof Key) {
+            return (Key) name;
+        }
+        Key k = KEYS.get(name);
+        return (k != null) ? k : KEYS.computeIfAbsent(name, SlotContext::newKey);
+    }
+
+    private static synchronized Key newKey(Object name) {
+        int slot = slotCount++;
+        Key k = new Key(name, slot);
+        Key[] slots = SLOTS;
+        if (slot == slots.length) {
+            slots = Arrays.copyOf(slots, slot * 2);
+        }
+        slots[slot] = k;
+        SLOTS = slots;
+        return k;
+    }
+
+    // Returns null if the key has never been interned (and so can't be in any SlotContext)
+    private static Key existingKey(Object name) {
+        return (name instanceof Key) ? (Key) name : KEYS.get(name);
+    }
+
+    private static final Object NULL = new Object();
+    private static final Object[] EMPTY = new Object[0];
+    private static final long[] NO_PRIMITIVES = new long[0];
+
+    // Value slot tags for primitives held in the `primitives` array
+    private static final Object INT = new Object();
+    private static final Object LONG = new Object();
+    private static final Object DOUBLE = new Object();
+
+    Object error;
+    Object queue;
+    Object stack;
+    Object terminators;
+    Object deadline;
+
+    Object[] values;
+    // Raw bits of primitive values, by slot (only valid where the value slot holds a primitive tag)
+    long[] primitives = NO_PRIMITIVES;
+    int size;
+
+    // The Terminators being evaluated on write (see Terminator), and whether any of them currently holds
+    TerminatorSet watching;
+    long watchMask;
+    boolean terminate;
+
+    // Pooling (see ContextPool) -- the scratch structures are only allocated for pooled Contexts
+    boolean released;
+    ChainTemplate.Cursor cursor;
+    ArrayDeque<IInterceptor> scratchStack;
+    ArrayDeque<IInterceptor> scratchQueue;
+    ChainCursor scratchCursor;
+
+    public SlotContext() {
+        this.values = EMPTY;
+    }
+
+    public SlotContext(Map<Object,Object> m) {
+        this();
+        putAll(m);
+    }
+
+    /* Key-based access
+     * -----------------*/
+    public Object get(Key key) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        if (slot < 0) {
+            return getControl(slot);
+        }
+        if (slot >= this.values.length) {
+            return null;
+        }
+        return unmask(slot, this.values[slot]);
+    }
+
+    // The Map-view value of a slot: nulls are unmasked, and primitives are boxed
+    private Object unmask(int slot, Object v) {
+        if (v == NULL) {
+            return null;
+        } else if (v == INT) {
+            return (int) this.primitives[slot];
+        } else if (v == LONG) {
+            return this.primitives[slot];
+        } else if (v == DOUBLE) {
+            return Double.longBitsToDouble(this.primitives[slot]);
+        }
+        return v;
+    }
+
+    public boolean containsKey(Key key) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        if (slot < 0) {
+            return getControl(slot) != null;
+        }
+        return slot < this.values.length && this.values[slot] != null;
+    }
+
+    public Object put(Key key, Object value) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        if (slot < 0) {
+            return putControl(slot, value);
+        }
+        ensureSlot(slot);
+        Object old = this.values[slot];
+        Object previous = (old == null) ? null : unmask(slot, old);
+        this.values[slot] = (value == null) ? NULL : value;
+        written(slot, old);
+        return previous;
+    }
+
+    private void ensureSlot(int slot) {
+        if (slot >= this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.max(slot + 1, Math.min(SLOTS.length, slot + 8)));
+        }
+    }
+
+    private void written(int slot, Object old) {
+        if ((this.watchMask & (1L << slot)) != 0) {
+            evaluateTerminators();
+        }
+        if (old == null) {
+            this.size++;
+        }
+    }
+
+    /* Primitive access
+     * -----------------*/
+    private void putPrimitive(int slot, Object tag, long bits) {
+        ensureSlot(slot);
+        if (slot >= this.primitives.length) {
+            // Sized for every interned key at once, so it rarely has to grow again
+            this.primitives = Arrays.copyOf(this.primitives, Math.max(slot + 1, SLOTS.length));
+        }
+        Object old = this.values[slot];
+        this.primitives[slot] = bits;
+        this.values[slot] = tag;
+        written(slot, old);
+    }
+
+    public SlotContext putLong(Key key, long value) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        if (key.slot < 0) {
+            put(key, (Object) value);
+        } else {
+            putPrimitive(key.slot, LONG, value);
+        }
+        return this;
+    }
+    public SlotContext putInt(Key key, int value) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        if (key.slot < 0) {
+            put(key, (Object) value);
+        } else {
+            putPrimitive(key.slot, INT, value);
+        }
+        return this;
+    }
+    public SlotContext putDouble(Key key, double value) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        if (key.slot < 0) {
+            put(key, (Object) value);
+        } else {
+            putPrimitive(key.slot, DOUBLE, Double.doubleToRawLongBits(value));
+        }
+        return this;
+    }
+    public SlotContext putLong(Object key, long value) {
+        return putLong(key(key), value);
+    }
+    public SlotContext putInt(Object key, int value) {
+        return putInt(key(key), value);
+    }
+    public SlotContext putDouble(Object key, double value) {
+        return putDouble(key(key), value);
+    }
+
+    /**
+     * Read a number as a long (without boxing, if it was written as a primitive), or `notFound` if the key isn't present.
+     * Boxed values must be Numbers.
+     */
+    public long getLong(Key key, long notFound) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        Object v = (slot < 0) ? getControl(slot) : (slot < this.values.length) ? this.values[slot] : null;
+        if (v == INT || v == LONG) {
+            return this.primitives[slot];
+        } else if (v == DOUBLE) {
+            return (long) Double.longBitsToDouble(this.primitives[slot]);
+        }
+        return (v == null || v == NULL) ? notFound : ((Number) v).longValue();
+    }
+    public int getInt(Key key, int notFound) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        Object v = (slot < 0) ? getControl(slot) : (slot < this.values.length) ? this.values[slot] : null;
+        if (v == INT || v == LONG) {
+            return (int) this.primitives[slot];
+        } else if (v == DOUBLE) {
+            return (int) Double.longBitsToDouble(this.primitives[slot]);
+        }
+        return (v == null || v == NULL) ? notFound : ((Number) v).intValue();
+    }
+    public double getDouble(Key key, double notFound) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        Object v = (slot < 0) ? getControl(slot) : (slot < this.values.length) ? this.values[slot] : null;
+        if (v == DOUBLE) {
+            return Double.longBitsToDouble(this.primitives[slot]);
+        } else if (v == INT || v == LONG) {
+            return (double) this.primitives[slot];
+        }
+        return (v == null || v == NULL) ? notFound : ((Number) v).doubleValue();
+    }
+    public long getLong(Object key, long notFound) {
+        Key k = existingKey(key);
+        return (k != null) ? getLong(k, notFound) : notFound;
+    }
+    public int getInt(Object key, int notFound) {
+        Key k = existingKey(key);
+        return (k != null) ? getInt(k, notFound) : notFound;
+    }
+    public double getDouble(Object key, double notFound) {
+        Key k = existingKey(key);
+        return (k != null) ? getDouble(k, notFound) : notFound;
+    }
+
+    public Object remove(Key key) {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        int slot = key.slot;
+        if (slot < 0) {
+            return putControl(slot, null);
+        }
+        if (slot >= this.values.length) {
+            return null;
+        }
+        Object old = this.values[slot];
+        if (old == null) {
+            return null;
+        }
+        Object previous = unmask(slot, old);
+        this.values[slot] = null;
+        this.size--;
+        if ((this.watchMask & (1L << slot)) != 0) {
+            evaluateTerminators();
+        }
+        return previous;
+    }
+
+    /**
+     * Evaluate the given Terminators on every write, instead of the "dais.terminators"
+     * (ChainTemplates use this for their own Terminators).
+     */
+    void watch(TerminatorSet terminators) {
+        this.watching = terminators;
+        this.watchMask = (terminators != null) ? terminators.mask : 0;
+        evaluateTerminators();
+    }
+
+    private void evaluateTerminators() {
+        boolean terminate = false;
+        if (this.watching != null) {
+            for (Terminator t : this.watching.watched) {
+                if (t.matches(this)) {
+                    terminate = true;
+                    break;
+                }
+            }
+        }
+        this.terminate = terminate;
+    }
+
+    /** The "error" entry, read directly from its field */
+    public Object getError() {
+        return this.error;
+    }
+
+    private Object getControl(int slot) {
+        switch (slot) {
+            case ERROR: return this.error;
+            case QUEUE: return this.queue;
+            case STACK: return this.stack;
+            case DEADLINE: return this.deadline;
+            default: return this.terminators;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object putControl(int slot, Object value) {
+        Object old;
+        switch (slot) {
+            case ERROR: old = this.error; this.error = value; break;
+            case QUEUE: old = this.queue; this.queue = value; break;
+            case STACK: old = this.stack; this.stack = value; break;
+            case DEADLINE: old = this.deadline; this.deadline = value; break;
+            default:
+                old = this.terminators;
+                this.terminators = value;
+                watch((value instanceof List) ? TerminatorSet.of((List<Predicate<Map<Object,Object>>>) value) : null);
+                break;
+        }
+        if (old == null && value != null) {
+            this.size++;
+        } else if (old != null && value == null) {
+            this.size--;
+        }
+        return old;
+    }
+
+    /* Map
+     * -----------------*/
+    public Object get(Object key) {
+        Key k = existingKey(key);
+        return (k != null) ? get(k) : null;
+    }
+    public boolean containsKey(Object key) {
+        Key k = existingKey(key);
+        return (k != null) && containsKey(k);
+    }
+    public Object put(Object key, Object value) {
+        return put(key(key), value);
+    }
+    public Object remove(Object key) {
+        Key k = existingKey(key);
+        return (k != null) ? remove(k) : null;
+    }
+    public int size() {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        return this.size;
+    }
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    public void clear() {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        this.error = null;
+        this.queue = null;
+        this.stack = null;
+        this.terminators = null;
+        this.deadline = null;
+        Arrays.fill(this.values, null);
+        this.size = 0;
+        watch(null);
+    }
+
+    public Set<Map.Entry<Object,Object>> entrySet() {
+        if (ContextPool.DEBUG) {
+            checkLive();
+        }
+        return new AbstractSet<Map.Entry<Object,Object>>() {
+            public int size() {
+                return SlotContext.this.size;
+            }
+            public Iterator<Map.Entry<Object,Object>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    // Walks the control entries (as slots -5..-1), and then the value slots
+    private final class EntryIterator implements Iterator<Map.Entry<Object,Object>> {
+        int nextSlot = DEADLINE;
+        Key last;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            for (; this.nextSlot < 0; this.nextSlot++) {
+                if (getControl(this.nextSlot) != null) {
+                    return;
+                }
+            }
+            Object[] values = SlotContext.this.values;
+            while (this.nextSlot < values.length && values[this.nextSlot] == null) {
+                this.nextSlot++;
+            }
+        }
+
+        public boolean hasNext() {
+            return this.nextSlot < 0 || this.nextSlot < SlotContext.this.values.length;
+        }
+
+        public Map.Entry<Object,Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int slot = this.nextSlot++;
+            this.last = keyForSlot(slot);
+            advance();
+            final Key k = this.last;
+            return new AbstractMap.SimpleEntry<Object,Object>(k.name, get(k)) {
+                public Object setValue(Object value) {
+                    put(k, value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            SlotContext.this.remove(this.last);
+            this.last = null;
+        }
+    }
+
+    private static Key keyForSlot(int slot) {
+        switch (slot) {
+            case ERROR: return ERROR_KEY;
+            case QUEUE: return QUEUE_KEY;
+            case STACK: return STACK_KEY;
+            case TERMINATORS: return TERMINATORS_KEY;
+            case DEADLINE: return DEADLINE_KEY;
+            default: return SLOTS[slot];
+        }
+    }
+
+    /* Pooling
+     * -----------------*/
+    private void checkLive() {
+        if (this.released) {
+            throw new IllegalStateException("SlotContext used after it was released to its ContextPool");
+        }
+    }
+
+    // Return the Context to its empty state, keeping its value array and scratch structures
+    void reset() {
+        this.error = null;
+        this.queue = null;
+        this.stack = null;
+        this.terminators = null;
+        this.deadline = null;
+        Arrays.fill(this.values, null);
+        this.size = 0;
+        watch(null);
+        if (this.cursor != null) {
+            this.cursor.reset(this.cursor.template);
+        }
+        if (this.scratchStack != null) {
+            this.scratchStack.clear();
+        } else {
+            this.scratchStack = new ArrayDeque<IInterceptor>();
+        }
+        if (this.scratchQueue != null) {
+            this.scratchQueue.clear();
+        } else {
+            this.scratchQueue = new ArrayDeque<IInterceptor>();
+        }
+        if (this.scratchCursor == null) {
+            this.scratchCursor = new ChainCursor(null, null, null, null, ChainCursor.DONE);
+        }
+    }
+
+    ChainTemplate.Cursor cursor(ChainTemplate template) {
+        if (this.cursor == null) {
+            this.cursor = template.cursor();
+        }
+        return this.cursor;
+    }
+
+    // The stack for `Chain.execute`, when the Context doesn't supply its own "dais.stack"
+    ArrayDeque<IInterceptor> executionStack() {
+        if (this.scratchStack == null) {
+            return new ArrayDeque<IInterceptor>();
+        }
+        this.scratchStack.clear();
+        return this.scratchStack;
+    }
+
+    // The ChainCursor for `Chain.execute`, or null if the Context isn't pooled
+    ChainCursor executionCursor() {
+        return this.scratchCursor;
+    }
+
+    private ArrayDeque<IInterceptor> queue(int size) {
+        if (this.scratchQueue == null) {
+            return new ArrayDeque<IInterceptor>(size);
+        }
+        this.scratchQueue.clear();
+        return this.scratchQueue;
+    }
+
+    /* Fluent API (see Context)
+     * -----------------*/
+    public SlotContext withTerminators(List<Predicate<Map<Object,Object>>> terminators) {
+        this.put(TERMINATORS_KEY, terminators);
+        return this;
+    }
+    @SuppressWarnings("unchecked")
+    public SlotContext withTerminators(Predicate<Map<Object,Object>>... terminators) {
+        return this.withTerminators(Arrays.asList(terminators));
+    }
+
+    public SlotContext withInterceptors(ToInterceptor... interceptors) {
+        ArrayDeque<IInterceptor> queue = queue(interceptors.length);
+        for (ToInterceptor i : interceptors) {
+            queue.add(i.toInterceptor());
+        }
+        this.put(QUEUE_KEY, queue);
+        return this;
+    }
+    public SlotContext withInterceptors(Interceptor... interceptors) {
+        ArrayDeque<IInterceptor> queue = queue(interceptors.length);
+        for (Interceptor i : interceptors) {
+            queue.add(i);
+        }
+        this.put(QUEUE_KEY, queue);
+        return this;
+    }
+
+    public SlotContext withStaticInterceptors(Interceptor... interceptors) {
+        this.put(QUEUE_KEY, interceptors);
+        return this;
+    }
+
+    public SlotContext withTemplate(ChainTemplate template) {
+        this.put(QUEUE_KEY, template);
+        return this;
+    }
+}
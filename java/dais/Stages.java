@@ -0,0 +1,102 @@
+
+package dais;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dais Stages
+ *
+ * The registry of stage names.  Every stage name is registered once and given a small integer id,
+ * so Interceptors can keep their stage functions in a dense array, and the Chain can dispatch by index.
+ *
+ * "enter", "leave", and "error" are always registered, as ids 0, 1, and 2.
+ * Stages are either forward (run from the first Interceptor to the last, like "enter")
+ * or reverse (run from the last Interceptor to the first, like "leave").
+ *
+ * Stages must be registered before they're used in a plan.  Look ids up once (eg: in a static final), never per call:
+ *
+ *   static final int VALIDATE = Stages.register("validate", false);
+ *   static final int COMMIT = Stages.register("commit", true);
+ *   static final int[] PLAN = Stages.plan("validate", "enter", "commit", "leave");
+ *
+ * An Interceptor can be built with stages that aren't registered yet; it resolves them (once) the first time
+ * a newly registered stage is dispatched on it.
+ *
+ * Stage names are never unregistered; they're meant to be a small, fixed vocabulary.
+ */
+public final class Stages {
+
+    public static final int ENTER = 0;
+    public static final int LEAVE = 1;
+    public static final int ERROR = 2;
+
+    private static final ConcurrentHashMap<String,Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+    private static volatile boolean[] reverse = new boolean[0];
+
+    static {
+        register("enter", false);
+        register("leave", true);
+        register("error", true);
+    }
+
+    private Stages() {}
+
+    /**
+     * Register a stage (or return its id, if it's already registered with the same direction)
+     */
+    public static synchronized int register(String name, boolean isReverse) {
+        Integer existing = IDS.get(name);
+        if (existing != null) {
+            if (reverse[existing] != isReverse) {
+                throw new IllegalArgumentException("Stage `" + name + "` is already registered as a " +
+                                                   (isReverse ? "forward" : "reverse") + " stage");
+            }
+            return existing;
+        }
+        int id = names.length;
+        String[] newNames = Arrays.copyOf(names, id + 1);
+        boolean[] newReverse = Arrays.copyOf(reverse, id + 1);
+        newNames[id] = name;
+        newReverse[id] = isReverse;
+        reverse = newReverse;
+        names = newNames;
+        IDS.put(name, id);
+        return id;
+    }
+
+    /**
+     * The id of a registered stage, or -1 if it isn't registered
+     */
+    public static int id(String name) {
+        Integer id = IDS.get(name);
+        return (id != null) ? id : -1;
+    }
+
+    /**
+     * The ids of the named (registered) stages, in order -- an execution plan for `Chain.executeStages`
+     */
+    public static int[] plan(String... stageNames) {
+        int[] ids = new int[stageNames.length];
+        for (int i = 0; i < stageNames.length; i++) {
+            ids[i] = id(stageNames[i]);
+            if (ids[i] < 0) {
+                throw new IllegalArgumentException("Stage `" + stageNames[i] + "` isn't registered; register it (as forward or reverse) before planning with it");
+            }
+        }
+        return ids;
+    }
+
+    public static String name(int id) {
+        return names[id];
+    }
+
+    public static boolean isReverse(int id) {
+        return reverse[id];
+    }
+
+    public static int count() {
+        return names.length;
+    }
+}
@@ -0,0 +1,65 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import dais.SlotContext;
+
+/**
+ * Dais Terminator
+ *
+ * A declarative Terminator -- one that only depends on a single Context entry:
+ *  - `keyPresent(k)`: terminate once the Context contains `k` (the same as `ctx -> ctx.containsKey(k)`),
+ *  - `keyEquals(k, v)`: terminate once the Context maps `k` to `v`.
+ *
+ * A Terminator is a plain Predicate, so it can be mixed freely with arbitrary Predicates as "dais.terminators"
+ * (or as ChainTemplate Terminators), and it works with any Context.
+ *
+ * With a SlotContext, declarative Terminators are evaluated when their key is written, instead of after every Interceptor.
+ * The SlotContext keeps a single "terminate" flag up to date, and the Chain reads that one field after each Interceptor;
+ * only the remaining (arbitrary) Predicates are still tested every time.
+ * Note: A Terminator list placed in a SlotContext is compiled when it's put -- changes to the list after that aren't seen.
+ */
+public final class Terminator implements Predicate<Map<Object,Object>> {
+
+    public final SlotContext.Key key;
+    public final Object value;
+
+    private Terminator(Object key, Object value) {
+        this.key = SlotContext.key(key);
+        this.value = value;
+    }
+
+    public static Terminator keyPresent(Object key) {
+        return new Terminator(key, null);
+    }
+
+    public static Terminator keyEquals(Object key, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Terminator.keyEquals requires a value; use keyPresent to check for a key");
+        }
+        return new Terminator(key, value);
+    }
+
+    public boolean test(Map<Object,Object> context) {
+        if (context instanceof SlotContext) {
+            return matches((SlotContext) context);
+        }
+        if (this.value == null) {
+            return context.containsKey(this.key.name);
+        }
+        return this.value.equals(context.get(this.key.name));
+    }
+
+    boolean matches(SlotContext context) {
+        if (this.value == null) {
+            return context.containsKey(this.key);
+        }
+        return this.value.equals(context.get(this.key));
+    }
+
+    public String toString() {
+        return (this.value == null) ? "keyPresent(" + this.key + ")" : "keyEquals(" + this.key + ", " + this.value + ")";
+    }
+}
@@ -0,0 +1,100 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import dais.Terminator;
+import dais.SlotContext;
+
+/**
+ * A compiled group of Terminators.
+ * Declarative Terminators on value slots are "watched" -- a SlotContext watching the group re-evaluates them
+ * when one of their keys is written (see SlotContext.watch), and everything else is "polled" after every Interceptor.
+ */
+final class TerminatorSet {
+
+    @SuppressWarnings("unchecked")
+    static final Predicate<Map<Object,Object>>[] NO_PREDICATES = (Predicate<Map<Object,Object>>[]) new Predicate<?>[0];
+    private static final Terminator[] NO_TERMINATORS = new Terminator[0];
+
+    static final TerminatorSet EMPTY = new TerminatorSet(null, NO_PREDICATES);
+
+    // The List or array the group was built from; `Chain` compares it by identity
+    final Object source;
+    final Predicate<Map<Object,Object>>[] all;
+    final Terminator[] watched;
+    final Predicate<Map<Object,Object>>[] polled;
+    // A bit for every watched slot (mod 64), so writes to other slots skip the re-evaluation
+    final long mask;
+
+    private TerminatorSet(Object source, Predicate<Map<Object,Object>>[] all) {
+        this.source = source;
+        this.all = all;
+
+        Terminator[] watched = new Terminator[all.length];
+        Predicate<Map<Object,Object>>[] polled = Arrays.copyOf(NO_PREDICATES, all.length);
+        int w = 0;
+        int p = 0;
+        long mask = 0;
+        for (Predicate<Map<Object,Object>> predicate : all) {
+            if (predicate instanceof Terminator && ((Terminator) predicate).key.slot >= 0) {
+                Terminator t = (Terminator) predicate;
+                watched[w++] = t;
+                mask |= 1L << t.key.slot;
+            } else {
+                polled[p++] = predicate;
+            }
+        }
+        this.watched = (w == 0) ? NO_TERMINATORS : Arrays.copyOf(watched, w);
+        this.polled = (p == 0) ? NO_PREDICATES : Arrays.copyOf(polled, p);
+        this.mask = mask;
+    }
+
+    static TerminatorSet of(Predicate<Map<Object,Object>>[] terminators) {
+        return (terminators.length == 0) ? EMPTY : new TerminatorSet(terminators, nonNull(terminators.clone()));
+    }
+    static TerminatorSet of(List<Predicate<Map<Object,Object>>> terminators) {
+        return (terminators == null || terminators.isEmpty()) ? EMPTY :
+               new TerminatorSet(terminators, nonNull(terminators.toArray(NO_PREDICATES)));
+    }
+
+    private static Predicate<Map<Object,Object>>[] nonNull(Predicate<Map<Object,Object>>[] terminators) {
+        int count = 0;
+        for (Predicate<Map<Object,Object>> p : terminators) {
+            if (p != null) {
+                terminators[count++] = p;
+            }
+        }
+        return (count == terminators.length) ? terminators : Arrays.copyOf(terminators, count);
+    }
+
+    boolean isEmpty() {
+        return this.all.length == 0;
+    }
+
+    /**
+     * Should the chain terminate?
+     * A SlotContext that's watching this group answers the watched Terminators with a single field read.
+     */
+    boolean test(Map<Object,Object> context) {
+        Predicate<Map<Object,Object>>[] predicates = this.all;
+        if (context instanceof SlotContext) {
+            SlotContext slots = (SlotContext) context;
+            if (slots.watching == this) {
+                if (slots.terminate) {
+                    return true;
+                }
+                predicates = this.polled;
+            }
+        }
+        for (Predicate<Map<Object,Object>> p : predicates) {
+            if (p.test(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,165 @@
+
+package dais;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import dais.IInterceptor;
+import dais.ChainMetrics;
+import dais.ChainEvents;
+
+/**
+ * Dais FlightEvents
+ *
+ * The JDK Flight Recorder event types emitted by the Chain (see ChainEvents).
+ * This is the only class that refers to `jdk.jfr`, so it lives in the `jfr` source path (the `:jfr` profile),
+ * outside of the Java 8 core -- ChainEvents loads it reflectively, and only when `dais.jfr` is enabled.
+ *
+ * Events nest on a thread: a "dais.ChainExecution" spans every "dais.InterceptorStage" within it,
+ * so JMC can break a Chain's time down by Interceptor and stage (and line it up with GC, allocation, and lock events).
+ */
+final class FlightEvents implements ChainEvents.Recorder {
+
+    FlightEvents() {}
+
+    @Name("dais.ChainExecution")
+    @Label("Chain Execution")
+    @Category({"Dais", "Chain"})
+    @Description("A complete Chain execution, from the first enter to the last leave/error")
+    static final class ChainExecution extends Event {
+        @Label("Queue Depth")
+        @Description("The number of Interceptors in the queue when the Chain started")
+        int queueDepth;
+
+        @Label("Template")
+        @Description("Whether the Chain was executed from a ChainTemplate")
+        boolean template;
+
+        @Label("Error")
+        @Description("The class of the \"error\" left in the final Context (or of the exception the execution threw), if any")
+        String error;
+    }
+
+    @Name("dais.InterceptorStage")
+    @Label("Interceptor Stage")
+    @Category({"Dais", "Chain"})
+    @Description("A single call to an Interceptor's enter, leave, or error function")
+    static final class InterceptorStage extends Event {
+        @Label("Interceptor")
+        String interceptor;
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Queue Depth")
+        @Description("The number of Interceptors left in the queue (-1 outside of the Enter Phase)")
+        int queueDepth;
+
+        @Label("Stack Depth")
+        @Description("The number of Interceptors entered and not yet unwound")
+        int stackDepth;
+    }
+
+    @Name("dais.Termination")
+    @Label("Chain Termination")
+    @Category({"Dais", "Chain"})
+    @Description("A Terminator fired after an Interceptor's enter, starting the Leave Phase")
+    @StackTrace(false)
+    static final class Termination extends Event {
+        @Label("Interceptor")
+        String interceptor;
+
+        @Label("Queue Depth")
+        @Description("The number of Interceptors skipped in the queue")
+        int queueDepth;
+
+        @Label("Stack Depth")
+        int stackDepth;
+    }
+
+    @Name("dais.ErrorHandled")
+    @Label("Error Handled")
+    @Category({"Dais", "Chain"})
+    @Description("An Interceptor's error function removed the \"error\", switching from the Error Phase to the Leave Phase")
+    @StackTrace(false)
+    static final class ErrorHandled extends Event {
+        @Label("Interceptor")
+        String interceptor;
+
+        @Label("Stack Depth")
+        int stackDepth;
+    }
+
+    public Object beginExecution(int queueDepth, boolean template) {
+        ChainExecution event = new ChainExecution();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.queueDepth = queueDepth;
+        event.template = template;
+        event.begin();
+        return event;
+    }
+
+    public void endExecution(Object e, Map<Object,Object> context, Throwable thrown) {
+        ChainExecution event = (ChainExecution) e;
+        event.end();
+        if (event.shouldCommit()) {
+            Object err = (thrown != null) ? thrown : Chain.errorOf(context);
+            event.error = (err != null) ? err.getClass().getName() : null;
+            event.commit();
+        }
+    }
+
+    public Map<Object,Object> stage(IInterceptor interceptor,
+                                    int stage,
+                                    Function<Map<Object,Object>,Map<Object,Object>> fn,
+                                    ChainMetrics.InterceptorMetrics metrics,
+                                    Map<Object,Object> context,
+                                    int queueDepth,
+                                    int stackDepth) {
+        InterceptorStage event = new InterceptorStage();
+        if (!event.isEnabled()) {
+            return (metrics != null) ? ChainMetrics.apply(metrics, stage, fn, context) : fn.apply(context);
+        }
+        event.begin();
+        try {
+            return (metrics != null) ? ChainMetrics.apply(metrics, stage, fn, context) : fn.apply(context);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.interceptor = interceptor.getName();
+                event.stage = ChainMetrics.STAGE_NAMES[stage];
+                event.queueDepth = queueDepth;
+                event.stackDepth = stackDepth;
+                event.commit();
+            }
+        }
+    }
+
+    public void terminated(IInterceptor interceptor, int queueDepth, int stackDepth) {
+        Termination event = new Termination();
+        if (event.shouldCommit()) {
+            event.interceptor = (interceptor != null) ? interceptor.getName() : null;
+            event.queueDepth = queueDepth;
+            event.stackDepth = stackDepth;
+            event.commit();
+        }
+    }
+
+    public void errorHandled(IInterceptor interceptor, int stackDepth) {
+        ErrorHandled event = new ErrorHandled();
+        if (event.shouldCommit()) {
+            event.interceptor = (interceptor != null) ? interceptor.getName() : null;
+            event.stackDepth = stackDepth;
+            event.commit();
+        }
+    }
+}
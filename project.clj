@@ -17,12 +17,21 @@
                                           "-Dclojure.server.repl={:port 5555 :accept clojure.core.server/repl}"]}
              :dev {:aliases {"crepl" ["trampoline" "run" "-m" "clojure.main/main"]
                              "srepl" ["with-profile" "srepl" "trampoline" "run" "-m" "clojure.main/main"]
-                             "run-dev" ["trampoline" "run" "-m" "pedestal-lambda.server/run-dev"]}
+                             "run-dev" ["trampoline" "run" "-m" "pedestal-lambda.server/run-dev"]
+                             "bench" ["with-profile" "+jmh" "trampoline" "run" "-m" "dais.bench.Main"]}
                    :resource-paths ["config" "resources" "test/resources"]
                    :dependencies [[org.clojure/clojure "1.9.0"]
                                   [io.pedestal/pedestal.interceptor "0.5.4"]
                                   [criterium "0.4.4"]]
                    :main ^{:skip-aot true} dais.server}
+             ;; JMH benchmarks -- `lein bench` (everything), or eg: `lein bench ChainBenchmark -p length=14`
+             ;; The GC profiler is always attached, so allocation per op is reported as `gc.alloc.rate.norm`
+             :jmh {:java-source-paths ["java" "bench"]
+                   :dependencies [[org.openjdk.jmh/jmh-core "1.21"]
+                                  [org.openjdk.jmh/jmh-generator-annprocess "1.21"]]}
+             ;; JDK Flight Recorder events (see dais.ChainEvents) -- needs a JDK with Flight Recorder (8u262+ or 11+),
+             ;; so they're kept out of the Java 8 core. Run with `-Ddais.jfr=true` to turn them on
+             :jfr {:java-source-paths ["java" "jfr"]}
              :uberjar {:jvm-opts ["-D\"clojure.compiler.direct-linking=true\""]
                        ;:aot [dais.server]
                        }})
@@ -0,0 +1,138 @@
+(ns dais.persistent
+  "A Context (java.util.Map) over a Clojure persistent map, without copying the map in or out.
+
+  `context` wraps a persistent map in a transient (O(1)), so Interceptors write into it
+  with copy-on-write semantics -- only the touched parts of the map are copied, never the whole map.
+  `persistent` turns the Context back into a persistent map in O(1).
+
+  Keyword and String keys resolve to each other, so Java Interceptors can use
+  `(.get ctx \"user\")` on a map built with `:user`, without converting the map's keys.
+  A String key reads the keyword entry first, then the String entry.
+  Writes update whichever entry already exists; new entries are written with keyword keys,
+  so the resulting map is idiomatic Clojure (eg: \"error\" becomes :error, \"dais.queue\" becomes :dais.queue).
+
+  Iteration (keySet, values, entrySet, equals, etc) works over a persistent snapshot of the Context;
+  those views are read-only, and don't see later writes.
+  Like any transient, a Context must not be used concurrently, and can't be used after `persistent`."
+  (:import (java.util Map
+                      Map$Entry)
+           (java.util.concurrent ConcurrentHashMap)
+           (clojure.lang IEditableCollection
+                         IPersistentMap
+                         ITransientMap
+                         Keyword)))
+
+;; Interned keywords by name, so key resolution doesn't allocate a Symbol per lookup.
+;; Context keys are expected to be a small, fixed vocabulary.
+(def ^:private ^ConcurrentHashMap keywords (ConcurrentHashMap.))
+
+(defn- ->keyword ^Keyword [^String s]
+  (or (.get keywords s)
+      (let [k (keyword s)]
+        (.putIfAbsent keywords s k)
+        k)))
+
+(def ^:private none (Object.))
+
+(defn- other-key
+  "The alternate spelling of a key -- a String for a Keyword, and a Keyword for a String"
+  [k]
+  (cond
+    (string? k) (->keyword k)
+    (keyword? k) (name ^Keyword k)
+    :else none))
+
+(defn- resolve-key
+  "The key an entry for `k` is stored under, or `none`"
+  [^ITransientMap tm k]
+  (let [primary (if (string? k) (->keyword k) k)]
+    (if (identical? none (.valAt tm primary none))
+      (let [alt (if (string? k) k (other-key k))]
+        (if (or (identical? none alt)
+                (identical? none (.valAt tm alt none)))
+          none
+          alt))
+      primary)))
+
+(defn- write-key
+  "The key a write to `k` goes to -- the existing entry, or the keyword for new String keys"
+  [^ITransientMap tm k]
+  (let [existing (resolve-key tm k)]
+    (cond
+      (not (identical? none existing)) existing
+      (string? k) (->keyword k)
+      :else k)))
+
+(definterface IPersistentContext
+  (^clojure.lang.IPersistentMap snapshot [])
+  (^clojure.lang.IPersistentMap toPersistent []))
+
+(deftype PersistentContext [^:unsynchronized-mutable ^ITransientMap tm]
+  IPersistentContext
+  (snapshot [_]
+    (let [p (.persistent tm)]
+      (set! tm (.asTransient ^IEditableCollection p))
+      p))
+  (toPersistent [_]
+    (.persistent tm))
+
+  Map
+  (size [_]
+    (.count tm))
+  (isEmpty [_]
+    (zero? (.count tm)))
+  (containsKey [_ k]
+    (not (identical? none (resolve-key tm k))))
+  (containsValue [this v]
+    (.containsValue ^Map (.snapshot this) v))
+  (get [_ k]
+    (let [k (resolve-key tm k)]
+      (when-not (identical? none k)
+        (.valAt tm k))))
+  (put [_ k v]
+    (let [k (write-key tm k)
+          old (.valAt tm k)]
+      (set! tm (.assoc tm k v))
+      old))
+  (remove [_ k]
+    (let [k (resolve-key tm k)]
+      (when-not (identical? none k)
+        (let [old (.valAt tm k)]
+          (set! tm (.without tm k))
+          old))))
+  (putAll [this m]
+    (doseq [^Map$Entry e (.entrySet m)]
+      (.put this (.getKey e) (.getValue e))))
+  (clear [_]
+    (set! tm (transient {})))
+  (keySet [this]
+    (.keySet ^Map (.snapshot this)))
+  (values [this]
+    (.values ^Map (.snapshot this)))
+  (entrySet [this]
+    (.entrySet ^Map (.snapshot this)))
+
+  Object
+  (equals [this o]
+    (or (identical? this o)
+        (.equals ^Object (.snapshot this) o)))
+  (hashCode [this]
+    (.hashCode ^Object (.snapshot this)))
+  (toString [this]
+    (str (.snapshot this))))
+
+(defn context
+  "Wrap a Clojure map as a Context, without copying it"
+  ^PersistentContext [m]
+  (PersistentContext. (if (instance? IEditableCollection m)
+                        (.asTransient ^IEditableCollection m)
+                        ;; Sorted maps (etc) aren't editable, so they're copied once
+                        (transient (into {} m)))))
+
+(defn persistent
+  "The persistent map of a Context -- O(1) for a PersistentContext, which can't be used afterwards"
+  [ctx]
+  (cond
+    (instance? PersistentContext ctx) (.toPersistent ^PersistentContext ctx)
+    (map? ctx) ctx
+    :else (into {} ctx)))
@@ -1,6 +1,7 @@
 (ns dais.server
   (:require [io.pedestal.interceptor :as ped-interceptor]
-            [io.pedestal.interceptor.chain :as ped-chain])
+            [io.pedestal.interceptor.chain :as ped-chain]
+            [dais.persistent :as persistent])
   (:import (java.util.function Function
                                Predicate)
            (java.util Map
@@ -8,9 +9,12 @@
                       Deque
                       HashMap
                       ArrayList
-                      ArrayDeque)
+                      ArrayDeque
+                      Collection)
            (dais Interceptor
                  Chain
+                 ChainTemplate
+                 HttpServer
                  Example
                  Maps)))
 
@@ -44,8 +48,46 @@
              (HashMap.)
              ctx-map))
 
+(defn persistent-context
+  "Like `context`, but the Context wraps `ctx-map` instead of copying it (see dais.persistent).
+  Best for large maps; the Context's keys stay keywords."
+  [ctx-map]
+  (let [^Map ctx (persistent/context (dissoc ctx-map :queue :stack :terminators))]
+    (when-let [q (:queue ctx-map)]
+      (.put ctx "dais.queue" (ArrayDeque. ^Collection q)))
+    (when-let [s (:stack ctx-map)]
+      (.put ctx "dais.stack" (ArrayDeque. ^Collection s)))
+    (when-let [ts (:terminators ctx-map)]
+      (.put ctx "dais.terminators" (ArrayList. ^Collection (map fn->Predicate ts))))
+    ctx))
+
+(defn execute
+  "Execute a chain over a Clojure map, returning a Clojure map -- neither direction copies the map.
+  The control entries are left in the result as :dais.queue, :dais.stack, and :dais.terminators"
+  [ctx-map]
+  (persistent/persistent (Chain/execute ^Map (persistent-context ctx-map))))
+
+(defn http-server
+  "Start an HttpServer that runs every request through a chain of `interceptors` (see `interceptor`).
+  The request is in the Context as \"method\", \"path\", \"query\", \"protocol\", \"headers\", and \"body\",
+  and the response is read from its \"response\" (see HttpServer).  Stop the server with `.close`.
+  Options: :port (default 8080), :loops (default one per core), and :terminators"
+  [interceptors & {:keys [port loops terminators] :or {port HttpServer/DEFAULT_PORT}}]
+  (let [template (ChainTemplate. ^List (vec interceptors) ^List (mapv fn->Predicate terminators))
+        server (HttpServer. template)]
+    (.withPort server (int port))
+    (when loops
+      (.withLoops server (int loops)))
+    (.start server)))
+
 (comment
 
+  ;; These are REPL walkthroughs of the Chain's behavior.
+  ;; For performance numbers (time and allocation per op), use the JMH suite instead:
+  ;;   lein bench
+  ;;   lein bench ChainBenchmark -p length=14
+  ;; `PedestalBenchmark` runs the `ped-chain/execute` baseline over the same chain shapes.
+
   (def basic-context
     (context {:queue [(interceptor {:enter (fn [^Map ctx] (.put ctx "a" 1) ctx)
                                     :leave (fn [^Map ctx] (.put ctx "leave-a" 11) ctx)})
@@ -54,13 +96,21 @@
               :terminators [(fn [^Map ctx] (.get ctx "b"))]}))
 
   ;; We should only see a and b processed
-  (time (Chain/execute basic-context)) ;; 0.14 - 0.30 ms
-  ;; 0.50 - 1.50 ms (includes construction, like the Java Example)
-  (time (Chain/execute (context {:queue [(interceptor {:enter (fn [^Map ctx] (.put ctx "a" 1) ctx)
-                                                       :leave (fn [^Map ctx] (.put ctx "leave-a" 11) ctx)})
-                                         (interceptor {:enter (fn [^Map ctx] (.put ctx "b" 2) ctx)})
-                                         (interceptor {:enter (fn [^Map ctx] (.put ctx "c" 3) ctx)})]
-                                 :terminators [(fn [^Map ctx] (.get ctx "b"))]})))
+  (Chain/execute basic-context)
+
+  ;; The same chain over a persistent map, which is neither copied in nor out.
+  ;; Keyword and String keys resolve to each other, so the Interceptors' "a" reads and writes :a
+  (execute {:a 0
+            :queue [(interceptor {:enter (fn [^Map ctx] (.put ctx "a" (inc ^long (.get ctx "a"))) ctx)})
+                    (interceptor {:enter (fn [^Map ctx] (.put ctx "b" 2) ctx)})
+                    (interceptor {:enter (fn [^Map ctx] (.put ctx "c" 3) ctx)})]
+            :terminators [(fn [^Map ctx] (.get ctx "b"))]})
+  ;; Including construction, like the Java Example
+  (Chain/execute (context {:queue [(interceptor {:enter (fn [^Map ctx] (.put ctx "a" 1) ctx)
+                                                 :leave (fn [^Map ctx] (.put ctx "leave-a" 11) ctx)})
+                                   (interceptor {:enter (fn [^Map ctx] (.put ctx "b" 2) ctx)})
+                                   (interceptor {:enter (fn [^Map ctx] (.put ctx "c" 3) ctx)})]
+                           :terminators [(fn [^Map ctx] (.get ctx "b"))]}))
 
   (def dynamic-context
     (context {:queue [(interceptor {:enter (fn [^Map ctx]
@@ -93,10 +143,10 @@
               :terminators [(fn [^Map ctx] (.get ctx "ZZ"))]}))
 
   ;; We should see all interceptors processed.
-  (time (Chain/execute dynamic-last-context)) ;; 0.15 - 0.37 ms
+  (Chain/execute dynamic-last-context)
 
-  ;; 1.00 - 3.00 ms
-  (time (ped-chain/execute {::ped-chain/terminators [(fn [ctx] (:ZZ ctx))]}
+  ;; The same dynamic chain in Pedestal
+  (ped-chain/execute {::ped-chain/terminators [(fn [ctx] (:ZZ ctx))]}
                      [{:enter (fn [ctx]
                                 (-> ctx
                                     (assoc :a 1)
@@ -104,33 +154,41 @@
                                                conj (ped-interceptor/interceptor {:enter (fn [ctx] (assoc ctx :ZZ 0))}))))
                        :leave (fn [ctx] (assoc ctx :leave-a 11))}
                       {:enter (fn [ctx] (assoc ctx :b 2))}
-                      {:enter (fn [ctx] (assoc ctx :c 3))}]))
+                      {:enter (fn [ctx] (assoc ctx :c 3))}])
+
+  ;; Serving a chain over HTTP -- try `curl -i localhost:8080/hello`
+  (def hello-server
+    (http-server [(interceptor {:enter (fn [^Map ctx]
+                                         (.put ctx "response" {"status" 200
+                                                               "headers" {"Content-Type" "text/plain"}
+                                                               "body" (str "Hello from " (.get ctx "path"))})
+                                         ctx)})]))
+  (.close ^HttpServer hello-server)
 
-  (time (Example/exampleLong))
-  (time (Example/exampleLongRandom))
+  (Example/exampleLong)
+  (Example/exampleLongRandom)
 
-  ;; 0.02 - 0.22 ms
   ;; All Examples
-  (= (time (Example/example))
-     (time (Example/example1))
-     (time (Example/example2))
-     (time (Example/example2S))
-     (time (Example/example3))
-     (time (Example/example4))
-     (time (Example/exampleStatic))
-     (time (Example/exampleStatic1)))
+  (= (Example/example)
+     (Example/example1)
+     (Example/example2)
+     (Example/example2S)
+     (Example/example3)
+     (Example/example4)
+     (Example/exampleStatic)
+     (Example/exampleStatic1))
 
   ;; Interceptors allocated inline
-  (= (time (Example/example))
-     (time (Example/example2))
-     (time (Example/example3))
-     (time (Example/example4))
-     (time (Example/exampleStatic)))
+  (= (Example/example)
+     (Example/example2)
+     (Example/example3)
+     (Example/example4)
+     (Example/exampleStatic))
 
   ;; Static interceptors (and 'example' as a baseline)
-  (= (time (Example/example))
-     (time (Example/example1))
-     (time (Example/example2S))
-     (time (Example/exampleStatic1)))
+  (= (Example/example)
+     (Example/example1)
+     (Example/example2S)
+     (Example/exampleStatic1))
   )
 